@@ -0,0 +1,152 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.bench;
+
+import com.sap.coap.Message;
+
+/**
+ * Encoded messages the benchmarks run on, the traffic a mote sees:
+ *
+ *  - get: a confirmable GET of sensor/temp with a 2 byte token,
+ *  - notification: a 2.05 notification with Observe, ETag, Content-Format, Max-Age and a reading,
+ *  - block2: a 2.05 response with a 64 byte block of a larger representation,
+ *  - optionsN: a GET with N options, half Uri-Path segments and half Uri-Query parameters,
+ *  - extended: options that need extended delta and length fields, 1 and 2 bytes each.
+ */
+public final class Corpus {
+    public static final String[] NAMES = { "get", "notification", "block2", "options1", "options5", "options10", "options20", "extended" };
+
+    private static final int OPTION_IF_MATCH = 1;
+    private static final int OPTION_ETAG = 4;
+    private static final int OPTION_OBSERVE = 6;
+    private static final int OPTION_URI_PATH = 11;
+    private static final int OPTION_CONTENT_FORMAT = 12;
+    private static final int OPTION_MAX_AGE = 14;
+    private static final int OPTION_URI_QUERY = 15;
+    private static final int OPTION_BLOCK2 = 23;
+    private static final int OPTION_SIZE2 = 28;
+    private static final int OPTION_PROXY_URI = 35;
+    // experimental range, far enough from Proxy-Uri for a 2 byte delta
+    private static final int OPTION_EXPERIMENTAL = 65000;
+
+    private static final byte[] TOKEN = { 0x3a, (byte) 0xc1 };
+
+    public static byte[] get(String name) {
+        if (name.equals("get"))
+            return get();
+        if (name.equals("notification"))
+            return notification();
+        if (name.equals("block2"))
+            return block2();
+        if (name.equals("extended"))
+            return extended();
+        if (name.startsWith("options"))
+            return options(Integer.parseInt(name.substring(7)));
+        throw new IllegalArgumentException(name);
+    }
+
+    public static byte[] get() {
+        Message message = start(Message.CON, Message.GET, 0x1234);
+        addString(message, OPTION_URI_PATH, "sensor");
+        addString(message, OPTION_URI_PATH, "temp");
+        return encode(message);
+    }
+
+    public static byte[] notification() {
+        Message message = start(Message.NON, Message.createResponseCode((byte) 2, (byte) 5), 0x1235);
+        message.insertOption(OPTION_ETAG, new byte[] { 0x11, 0x22, 0x33, 0x44 }, 4);
+        message.insertOption(OPTION_OBSERVE, new byte[] { 0x01, 0x02, 0x03 }, 3);
+        message.insertOption(OPTION_CONTENT_FORMAT, new byte[0], 0);
+        message.insertOption(OPTION_MAX_AGE, new byte[] { 10 }, 1);
+        message.setPayload(" 21.35 ".getBytes());
+        return encode(message);
+    }
+
+    public static byte[] block2() {
+        Message message = start(Message.ACK, Message.createResponseCode((byte) 2, (byte) 5), 0x1236);
+        message.insertOption(OPTION_ETAG, new byte[] { 0x11, 0x22, 0x33, 0x44 }, 4);
+        message.insertOption(OPTION_CONTENT_FORMAT, new byte[0], 0);
+        // block 1, more blocks, 64 bytes
+        message.insertOption(OPTION_BLOCK2, new byte[] { 0x1a }, 1);
+        message.insertOption(OPTION_SIZE2, new byte[] { 0x01, 0x2c }, 2);
+        message.setPayload(fill(64));
+        return encode(message);
+    }
+
+    public static byte[] options(int count) {
+        Message message = start(Message.CON, Message.GET, 0x1237);
+        for (int i = 0; i < count; i++) {
+            if (i < (count + 1) / 2)
+                addString(message, OPTION_URI_PATH, "seg" + i);
+            else
+                addString(message, OPTION_URI_QUERY, "q" + i + "=v");
+        }
+        return encode(message);
+    }
+
+    public static byte[] extended() {
+        Message message = start(Message.CON, Message.GET, 0x1238);
+        message.insertOption(OPTION_IF_MATCH, new byte[] { 0x11, 0x22, 0x33, 0x44 }, 4);
+        addString(message, OPTION_URI_PATH, "sensor");
+        // delta 24 and length 20: 1 byte extended fields
+        message.insertOption(OPTION_PROXY_URI, fill(20), 20);
+        // delta 64965 and length 300: 2 byte extended fields
+        message.insertOption(OPTION_EXPERIMENTAL, fill(300), 300);
+        return encode(message);
+    }
+
+    private static Message start(byte type, byte code, int msgid) {
+        Message message = new Message(type, (byte) TOKEN.length, code, msgid);
+        message.token = TOKEN;
+        message.tokenOffset = 0;
+        return message;
+    }
+
+    private static void addString(Message message, int id, String value) {
+        byte[] bytes = value.getBytes();
+        message.insertOption(id, bytes, bytes.length);
+    }
+
+    private static byte[] encode(Message message) {
+        byte[] buffer = new byte[message.getMessageLength()];
+        message.encodeTo(buffer, 0);
+        return buffer;
+    }
+
+    private static byte[] fill(int length) {
+        byte[] buffer = new byte[length];
+        for (int i = 0; i < length; i++)
+            buffer[i] = (byte) ('a' + i % 26);
+        return buffer;
+    }
+}
@@ -0,0 +1,100 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+
+/**
+ * Message.encodeTo of every message of the Corpus, and for comparison the way responses are written: a
+ * notification built and encoded with MessageWriter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({ "get", "notification", "block2", "options1", "options5", "options10", "options20", "extended" })
+    public String corpus;
+
+    private Message message;
+    private byte[] buffer;
+
+    private MessageWriter writer;
+    private byte[] frame = new byte[128];
+    private byte[] token = { 0x3a, (byte) 0xc1 };
+    private byte[] etag = { 0x11, 0x22, 0x33, 0x44 };
+    private byte[] reading = " 21.35 ".getBytes();
+
+    @Setup
+    public void setup() {
+        byte[] encoded = Corpus.get(corpus);
+        message = new Message();
+        message.decode(encoded, 0, encoded.length, false);
+        buffer = new byte[encoded.length];
+        writer = new MessageWriter();
+    }
+
+    @Benchmark
+    public byte[] encodeTo() {
+        message.encodeTo(buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public int writeNotification() {
+        writer.start(Message.NON, Message.createResponseCode((byte) 2, (byte) 5), 0x1235, token, 0, (byte) 2);
+        writer.addOption(4, etag, 0, etag.length);
+        writer.addUintOption(6, 0x010203);
+        writer.addUintOption(12, 0);
+        writer.addUintOption(14, 10);
+        writer.setPayload(reading, 0, reading.length);
+        return writer.encodeTo(frame, 0);
+    }
+}
@@ -0,0 +1,103 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sap.coap.Message;
+
+/**
+ * Option manipulation on decoded messages of the Corpus. insertRemove inserts an ETag and removes it again, so
+ * the message is the same before every invocation, and measures the two together.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionBenchmark {
+    @Param({ "get", "notification", "block2", "options1", "options5", "options10", "options20", "extended" })
+    public String corpus;
+
+    private static final int OPTION_ETAG = 4;
+    private static final int OPTION_URI_PATH = 11;
+    private static final int OPTION_ACCEPT = 17;
+
+    private Message message;
+    private byte[] etag = { 0x55, 0x66, 0x77, 0x01 };
+    // an ETag of the corpus is the first one, the inserted one follows it
+    private int etagMatch;
+
+    @Setup
+    public void setup() {
+        byte[] encoded = Corpus.get(corpus);
+        message = new Message();
+        message.decode(encoded, 0, encoded.length, false);
+        etagMatch = message.hasOption(OPTION_ETAG) ? 1 : 0;
+    }
+
+    @Benchmark
+    public Message insertRemove() {
+        message.insertOption(OPTION_ETAG, etag, etag.length);
+        message.removeOptionWithOffset(message.getOffsetOfOptionWithId(OPTION_ETAG, etagMatch));
+        return message;
+    }
+
+    @Benchmark
+    public int getOffsetOfOptionWithId() {
+        return message.getOffsetOfOptionWithId(OPTION_URI_PATH, 0);
+    }
+
+    @Benchmark
+    public int getOffsetOfMissingOption() {
+        return message.getOffsetOfOptionWithId(OPTION_ACCEPT, 0);
+    }
+
+    @Benchmark
+    public byte[] getURIfromOptionArray() {
+        return message.getURIfromOptionArray();
+    }
+}
@@ -0,0 +1,418 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.load;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.sim.Datagram;
+import com.sap.coap.sim.Endpoint;
+import com.sap.coap.sim.Radio;
+import com.sap.coap.sim.Simulation;
+
+/**
+ * A CoAP client on the host side of a simulation that loads one mote. It starts exchanges open loop, at
+ * exponentially distributed intervals with the given mean rate and an Operation drawn from the mix, no matter how
+ * many are still outstanding, and follows each one to its end:
+ *
+ *  - confirmable requests are retransmitted like draft-ietf-core-coap-18, 4.2, an empty ACK is followed by a wait
+ *    for the separate response, which is acknowledged,
+ *  - block-wise fetches request block after block with the size the server chose,
+ *  - observations are kept for observeMillis, then the client forgets them and answers the next notification
+ *    with a RST, like a client that lost interest.
+ *
+ * Exchanges started before the measurement begins are counted in throw-away Statistics.
+ */
+public final class LoadClient implements Endpoint {
+    public static final int PORT = 5683;
+
+    private static final int ACK_TIMEOUT = 2000;
+    private static final double ACK_RANDOM_FACTOR = 1.5;
+    private static final int MAX_RETRANSMIT = 4;
+    // wait for a NON response or a separate response
+    private static final int RESPONSE_TIMEOUT = 30000;
+
+    private static final int OPTION_OBSERVE = 6;
+    private static final int OPTION_URI_PATH = 11;
+    private static final int OPTION_BLOCK2 = 23;
+
+    private static final int TOKEN_LENGTH = 4;
+    private static final int MAX_FRAME_SIZE = 64;
+
+    private final Simulation simulation;
+    private final Radio radio;
+    private final byte[] address;
+    private final byte[] server;
+    private final int serverPort;
+    private final Random random;
+
+    private final Operation[] operations = Operation.values();
+    private final double[] mix;
+    private final double mixTotal;
+    private final double rate;
+    private final long observeMillis;
+
+    private final Map<Operation, Statistics> statistics;
+    private final Map<Operation, Statistics> warmup = newStatistics();
+    private long measureStart;
+    private long stop;
+
+    private final Map<Integer, Exchange> byMessageId = new HashMap<Integer, Exchange>();
+    private final Map<Integer, Exchange> byToken = new HashMap<Integer, Exchange>();
+    // observations the client forgot, until the server learned it with a RST
+    private final Map<Integer, Statistics> forgotten = new HashMap<Integer, Statistics>();
+
+    private final MessageWriter writer = new MessageWriter();
+    private final Message response = new Message();
+    private final byte[] empty = new byte[4];
+    private int messageId;
+    private int tokenCounter;
+
+    /**
+     * A client at address for the server at serverAddress and serverPort. rate is the mean number of exchanges
+     * started per second, mix the weight of every Operation (in the order of Operation.values()).
+     */
+    public LoadClient(Simulation simulation, Radio radio, byte[] address, byte[] serverAddress, int serverPort,
+            double rate, double[] mix, long observeMillis, Map<Operation, Statistics> statistics) {
+        this.simulation = simulation;
+        this.radio = radio;
+        this.address = address.clone();
+        this.server = serverAddress.clone();
+        this.serverPort = serverPort;
+        this.rate = rate;
+        this.mix = mix.clone();
+        double total = 0;
+        for (double weight : mix)
+            total += weight;
+        this.mixTotal = total;
+        this.observeMillis = observeMillis;
+        this.statistics = statistics;
+        random = new Random(simulation.getRandom().nextLong());
+        messageId = random.nextInt(0x10000);
+        tokenCounter = random.nextInt();
+        radio.attach(address, this);
+    }
+
+    public static Map<Operation, Statistics> newStatistics() {
+        Map<Operation, Statistics> map = new EnumMap<Operation, Statistics>(Operation.class);
+        for (Operation operation : Operation.values())
+            map.put(operation, new Statistics(operation));
+        return map;
+    }
+
+    /**
+     * Starts exchanges from now until stop, exchanges started from measureStart on are counted.
+     */
+    public void start(long measureStart, long stop) {
+        this.measureStart = measureStart;
+        this.stop = stop;
+        scheduleArrival();
+    }
+
+    private void scheduleArrival() {
+        if (rate <= 0 || mixTotal <= 0)
+            return;
+        double seconds = -Math.log(1 - random.nextDouble()) / rate;
+        long time = simulation.now() + (long) (seconds * Simulation.TICKS_PER_SECOND);
+        if (time >= stop)
+            return;
+        simulation.schedule(time, new Runnable() {
+            public void run() {
+                begin(choose());
+                scheduleArrival();
+            }
+        });
+    }
+
+    private Operation choose() {
+        double value = random.nextDouble() * mixTotal;
+        for (int i = 0; i < operations.length; i++) {
+            value -= mix[i];
+            if (value < 0)
+                return operations[i];
+        }
+        return operations[operations.length - 1];
+    }
+
+    private void begin(Operation operation) {
+        Exchange exchange = new Exchange();
+        exchange.operation = operation;
+        exchange.statistics = (simulation.now() >= measureStart ? statistics : warmup).get(operation);
+        exchange.token = tokenCounter++;
+        exchange.start = simulation.now();
+        exchange.confirmable = operation != Operation.NON_GET;
+        exchange.statistics.started();
+        byToken.put(exchange.token, exchange);
+        send(exchange);
+    }
+
+    private void send(Exchange exchange) {
+        messageId = (messageId + 1) & 0xFFFF;
+        exchange.messageId = messageId;
+        exchange.retransmissions = 0;
+        exchange.acknowledged = false;
+
+        byte[] token = new byte[TOKEN_LENGTH];
+        setToken(token, exchange.token);
+        writer.start(exchange.confirmable ? Message.CON : Message.NON, Message.GET, messageId, token, 0, (byte) TOKEN_LENGTH);
+        if (exchange.operation == Operation.OBSERVE)
+            writer.addUintOption(OPTION_OBSERVE, 0);
+        for (byte[] segment : segments(exchange.operation))
+            writer.addOption(OPTION_URI_PATH, segment, 0, segment.length);
+        if (exchange.block > 0)
+            writer.addUintOption(OPTION_BLOCK2, (exchange.block << 4) | exchange.szx);
+        exchange.frameLength = writer.encodeTo(exchange.frame, 0);
+
+        if (exchange.confirmable) {
+            byMessageId.put(messageId, exchange);
+            exchange.timeout = (int) (ACK_TIMEOUT * (1 + random.nextDouble() * (ACK_RANDOM_FACTOR - 1)));
+            arm(exchange, exchange.timeout);
+        } else {
+            arm(exchange, RESPONSE_TIMEOUT);
+        }
+        transmit(exchange.frame, exchange.frameLength);
+    }
+
+    private void onTimeout(Exchange exchange) {
+        exchange.timer = null;
+        if (exchange.confirmable && !exchange.acknowledged && exchange.retransmissions < MAX_RETRANSMIT) {
+            exchange.retransmissions++;
+            exchange.statistics.retransmitted();
+            exchange.timeout *= 2;
+            arm(exchange, exchange.timeout);
+            transmit(exchange.frame, exchange.frameLength);
+            return;
+        }
+        exchange.statistics.timedOut();
+        finish(exchange);
+    }
+
+    public void receive(Datagram datagram) {
+        byte[] buffer = datagram.getPayload();
+        if (response.decode(buffer, 0, buffer.length, false) != 0)
+            return;
+        byte type = response.getType();
+        int mid = response.getMessageId();
+
+        if (response.getCode() == Message.EMPTY) {
+            Exchange exchange = byMessageId.remove(mid);
+            if (type == Message.CON) {
+                // ping
+                sendEmpty(Message.RST, mid);
+            } else if (exchange != null && type == Message.ACK) {
+                // the response follows separately
+                exchange.acknowledged = true;
+                arm(exchange, RESPONSE_TIMEOUT);
+            } else if (exchange != null && type == Message.RST) {
+                exchange.statistics.reset();
+                finish(exchange);
+            }
+            return;
+        }
+
+        int token = response.getTokenLength() == TOKEN_LENGTH ? getToken(response.token, response.tokenOffset) : 0;
+        Exchange exchange = response.getTokenLength() == TOKEN_LENGTH ? byToken.get(token) : null;
+        if (exchange == null) {
+            // an observation the client forgot, or unknown
+            Statistics forgottenBy = forgotten.remove(token);
+            if (forgottenBy != null)
+                forgottenBy.cancelled();
+            if (type == Message.CON || forgottenBy != null)
+                sendEmpty(Message.RST, mid);
+            return;
+        }
+
+        if (type == Message.ACK) {
+            if (mid != exchange.messageId)
+                return;
+            byMessageId.remove(mid);
+        } else if (type == Message.CON) {
+            sendEmpty(Message.ACK, mid);
+        }
+        if (exchange.confirmable && !exchange.acknowledged && type != Message.ACK)
+            byMessageId.remove(exchange.messageId);
+        exchange.acknowledged = true;
+
+        onResponse(exchange);
+    }
+
+    private void onResponse(Exchange exchange) {
+        int code = response.getCode() & 0xFF;
+        if (code >= (4 << 5)) {
+            if (!exchange.registered)
+                exchange.statistics.failed(code);
+            finish(exchange);
+            return;
+        }
+
+        if (exchange.operation == Operation.BLOCK_FETCH) {
+            int index = response.getIndexOfOptionWithId(OPTION_BLOCK2, 0);
+            if (index >= 0) {
+                int block = response.getUintValueOfOptionWithIndex(index);
+                if ((block & 0x08) != 0) {
+                    exchange.block = (block >> 4) + 1;
+                    exchange.szx = block & 0x07;
+                    send(exchange);
+                    return;
+                }
+            }
+        } else if (exchange.operation == Operation.OBSERVE) {
+            boolean observing = response.hasOption(OPTION_OBSERVE);
+            if (exchange.registered) {
+                exchange.statistics.notified();
+                if (!observing)
+                    finish(exchange);
+                return;
+            }
+            exchange.statistics.completed(micros(simulation.now() - exchange.start));
+            if (!observing) {
+                finish(exchange);
+                return;
+            }
+            // keep the observation for a while, then forget it
+            exchange.registered = true;
+            arm(exchange, observeMillis);
+            return;
+        }
+
+        exchange.statistics.completed(micros(simulation.now() - exchange.start));
+        finish(exchange);
+    }
+
+    private void finish(Exchange exchange) {
+        cancelTimer(exchange);
+        byToken.remove(exchange.token);
+        byMessageId.remove(exchange.messageId);
+    }
+
+    private void arm(final Exchange exchange, long millis) {
+        cancelTimer(exchange);
+        exchange.timer = simulation.schedule(simulation.now() + simulation.toTicks(millis), new Runnable() {
+            public void run() {
+                if (exchange.registered) {
+                    exchange.timer = null;
+                    forget(exchange);
+                } else {
+                    onTimeout(exchange);
+                }
+            }
+        });
+    }
+
+    private void forget(Exchange exchange) {
+        finish(exchange);
+        forgotten.put(exchange.token, exchange.statistics);
+    }
+
+    private static void cancelTimer(Exchange exchange) {
+        if (exchange.timer != null) {
+            exchange.timer.cancel();
+            exchange.timer = null;
+        }
+    }
+
+    private void sendEmpty(byte type, int mid) {
+        MessageWriter.writeHeader(empty, 0, type, Message.EMPTY, mid, null, 0, 0);
+        transmit(empty, empty.length);
+    }
+
+    private void transmit(byte[] frame, int length) {
+        radio.transmit(new Datagram(address, PORT, server, serverPort, frame, 0, length));
+    }
+
+    /**
+     * Outstanding exchanges, observations included.
+     */
+    public int getOutstanding() {
+        return byToken.size();
+    }
+
+    private static long micros(long ticks) {
+        return ticks * 1000000 / Simulation.TICKS_PER_SECOND;
+    }
+
+    private static final Map<Operation, byte[][]> SEGMENTS = new EnumMap<Operation, byte[][]>(Operation.class);
+
+    static {
+        for (Operation operation : Operation.values()) {
+            String[] parts = operation.getPath().split("/");
+            byte[][] segments = new byte[parts.length][];
+            for (int i = 0; i < parts.length; i++)
+                segments[i] = parts[i].getBytes();
+            SEGMENTS.put(operation, segments);
+        }
+    }
+
+    private static byte[][] segments(Operation operation) {
+        return SEGMENTS.get(operation);
+    }
+
+    private static void setToken(byte[] buffer, int token) {
+        buffer[0] = (byte) (token >> 24);
+        buffer[1] = (byte) (token >> 16);
+        buffer[2] = (byte) (token >> 8);
+        buffer[3] = (byte) token;
+    }
+
+    private static int getToken(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    private static final class Exchange {
+        Operation operation;
+        Statistics statistics;
+        int token;
+        long start;
+        boolean confirmable;
+
+        // the request in flight
+        int messageId;
+        byte[] frame = new byte[MAX_FRAME_SIZE];
+        int frameLength;
+        int retransmissions;
+        int timeout;
+        boolean acknowledged;
+        Simulation.Event timer;
+
+        // next block of a block-wise fetch
+        int block;
+        int szx;
+
+        // observation established
+        boolean registered;
+    }
+}
@@ -0,0 +1,175 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.load;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sap.coap.sim.Radio;
+import com.sap.coap.sim.Simulation;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * Loads simulated motes running CoapSensorDemo with LoadClients and reports per Operation: counts, 5.03 and
+ * other errors, timeouts, retransmissions and latency percentiles. Run with several rates it shows where the
+ * server saturates, i.e. where MAX_PENDING_REQUESTS, MAX_SENDING_OPERATIONS_PER_ROUND and the processing rounds
+ * stop keeping up and 5.03, timeouts and latency grow.
+ *
+ * Arguments are name=value pairs, all optional:
+ *
+ *  - rates: exchanges per second per mote, a comma separated list runs one simulation per rate (default 0.5)
+ *  - motes, clients: number of motes and of clients per mote (1, 10)
+ *  - warmup, duration, drain: seconds before the measurement, of the measurement, and after it without new
+ *    exchanges so outstanding ones end (30, 300, 120)
+ *  - mix: weights of the operations, e.g. con:4,non:2,observe:1,block:1 (the default)
+ *  - observe: seconds a client keeps an observation (60)
+ *  - loss, delay: loss probability and delay range in milliseconds of the radio (0, 2-10)
+ *  - seed: of the simulation (1)
+ */
+public final class LoadGenerator {
+    private static final String ASSEMBLY = "com.sap.coap.CoapSensorDemo";
+    private static final int SERVER_PORT = 1024;
+
+    private final Map<String, String> arguments;
+
+    private LoadGenerator(Map<String, String> arguments) {
+        this.arguments = arguments;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> arguments = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            arguments.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadGenerator(arguments).run(System.out);
+    }
+
+    private void run(PrintStream out) {
+        String[] rates = get("rates", "0.5").split(",");
+        double[] offered = new double[rates.length];
+        Map<Operation, Statistics>[] results = newResults(rates.length);
+        long duration = Long.parseLong(get("duration", "300"));
+
+        for (int i = 0; i < rates.length; i++) {
+            offered[i] = Double.parseDouble(rates[i]);
+            out.printf("rate %.2f/s per mote%n", offered[i]);
+            results[i] = simulate(offered[i], out);
+            Statistics.printHeader(out);
+            for (Statistics statistics : results[i].values())
+                statistics.print(out);
+            out.println();
+        }
+
+        if (rates.length > 1) {
+            out.printf("%8s %10s %8s %10s %9s%n", "rate", "ok/s", "5.03 %", "timeout %", "p99 ms");
+            for (int i = 0; i < rates.length; i++) {
+                Statistics total = new Statistics(Operation.CON_GET);
+                for (Statistics statistics : results[i].values())
+                    total.add(statistics);
+                double started = Math.max(1, total.getStarted());
+                out.printf("%8.2f %10.2f %8.1f %10.1f %9.1f%n", offered[i],
+                        total.getCompleted() / (double) duration / Integer.parseInt(get("motes", "1")),
+                        100 * total.getServiceUnavailable() / started, 100 * total.getTimeouts() / started,
+                        total.getLatency().getValueAtPercentile(99) / 1000.0);
+            }
+        }
+    }
+
+    private Map<Operation, Statistics> simulate(double rate, PrintStream out) {
+        int motes = Integer.parseInt(get("motes", "1"));
+        int clients = Integer.parseInt(get("clients", "10"));
+        long warmup = Long.parseLong(get("warmup", "30")) * 1000;
+        long duration = Long.parseLong(get("duration", "300")) * 1000;
+        long drain = Long.parseLong(get("drain", "120")) * 1000;
+        long observe = Long.parseLong(get("observe", "60")) * 1000;
+        double[] mix = parseMix(get("mix", "con:4,non:2,observe:1,block:1"));
+
+        Simulation simulation = new Simulation(Long.parseLong(get("seed", "1")));
+        Radio radio = new Radio(simulation);
+        radio.setLoss(Double.parseDouble(get("loss", "0")));
+        String[] delay = get("delay", "2-10").split("-");
+        radio.setDelay(Integer.parseInt(delay[0]), Integer.parseInt(delay[delay.length - 1]));
+
+        Map<Operation, Statistics> statistics = LoadClient.newStatistics();
+        long measureStart = simulation.toTicks(warmup);
+        long stop = simulation.toTicks(warmup + duration);
+        for (int m = 0; m < motes; m++) {
+            byte[] moteAddress = address(1, m);
+            VirtualMote mote = new VirtualMote(simulation, radio, moteAddress);
+            mote.boot(ASSEMBLY);
+            for (int c = 0; c < clients; c++) {
+                LoadClient client = new LoadClient(simulation, radio, address(2, m * clients + c), moteAddress, SERVER_PORT,
+                        rate / clients, mix, observe, statistics);
+                client.start(measureStart, stop);
+            }
+        }
+        simulation.runUntil(stop + simulation.toTicks(drain));
+
+        out.printf("radio: %d sent, %d lost, %d unreachable%n", radio.getSent(), radio.getLost(), radio.getUnreachable());
+        return statistics;
+    }
+
+    private static double[] parseMix(String value) {
+        double[] mix = new double[Operation.values().length];
+        for (String entry : value.split(",")) {
+            String[] pair = entry.split(":");
+            mix[Operation.forKey(pair[0]).ordinal()] = Double.parseDouble(pair[1]);
+        }
+        return mix;
+    }
+
+    // fd00::<group>:<index>
+    private static byte[] address(int group, int index) {
+        byte[] address = new byte[16];
+        address[0] = (byte) 0xfd;
+        address[12] = (byte) (group >> 8);
+        address[13] = (byte) group;
+        address[14] = (byte) (index >> 8);
+        address[15] = (byte) index;
+        return address;
+    }
+
+    private String get(String name, String defaultValue) {
+        String value = arguments.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Operation, Statistics>[] newResults(int length) {
+        return new Map[length];
+    }
+}
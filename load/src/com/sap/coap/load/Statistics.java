@@ -0,0 +1,172 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.load;
+
+import java.io.PrintStream;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcome of the exchanges of one Operation: counts, retransmissions and a latency histogram in microseconds
+ * of virtual time, from the first transmission of the request to the last response (the last block, the first
+ * notification).
+ */
+public final class Statistics {
+    private final Operation operation;
+    private final Histogram latency = new Histogram(3);
+
+    private long started = 0;
+    private long completed = 0;
+    private long serviceUnavailable = 0;
+    private long errors = 0;
+    private long timeouts = 0;
+    private long resets = 0;
+    private long retransmissions = 0;
+    private long notifications = 0;
+    private long cancelled = 0;
+
+    public Statistics(Operation operation) {
+        this.operation = operation;
+    }
+
+    void started() {
+        started++;
+    }
+
+    void completed(long micros) {
+        completed++;
+        latency.recordValue(micros);
+    }
+
+    /**
+     * A final response with an error code, 5.03 is counted separately.
+     */
+    void failed(int code) {
+        if (code == ((5 << 5) | 3))
+            serviceUnavailable++;
+        else
+            errors++;
+    }
+
+    void timedOut() {
+        timeouts++;
+    }
+
+    void reset() {
+        resets++;
+    }
+
+    void retransmitted() {
+        retransmissions++;
+    }
+
+    void notified() {
+        notifications++;
+    }
+
+    void cancelled() {
+        cancelled++;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getServiceUnavailable() {
+        return serviceUnavailable;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getResets() {
+        return resets;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public void add(Statistics other) {
+        started += other.started;
+        completed += other.completed;
+        serviceUnavailable += other.serviceUnavailable;
+        errors += other.errors;
+        timeouts += other.timeouts;
+        resets += other.resets;
+        retransmissions += other.retransmissions;
+        notifications += other.notifications;
+        cancelled += other.cancelled;
+        latency.add(other.latency);
+    }
+
+    public static void printHeader(PrintStream out) {
+        out.printf("%-8s %8s %8s %6s %6s %6s %6s %8s %8s %6s %9s %9s %9s %9s %9s%n", "op", "started", "ok", "5.03", "error",
+                "timeout", "reset", "retrans", "notify", "cancel", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-8s %8d %8d %6d %6d %6d %6d %8d %8d %6d %9.1f %9.1f %9.1f %9.1f %9.1f%n", operation.getKey(), started,
+                completed, serviceUnavailable, errors, timeouts, resets, retransmissions, notifications, cancelled,
+                millis(50), millis(90), millis(99), millis(99.9), latency.getMaxValue() / 1000.0);
+    }
+
+    private double millis(double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
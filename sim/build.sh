@@ -0,0 +1,25 @@
+#!/bin/sh
+# Builds the assembly and the host simulation into build/sim and runs the scenarios, all of them or the ones
+# named as arguments, e.g. sim/build.sh StatusScenario. Run from the root of the repository.
+#
+# The //##if LOGGING blocks are stripped as in an assembly built without logging, the sources without them go
+# to build/sim-src. Compiled with -Xlint:all -Werror, a warning fails the build.
+set -e
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+sources=$root/build/sim-src
+classes=$root/build/sim
+
+rm -rf "$sources" "$classes"
+mkdir -p "$sources" "$classes"
+
+cd "$root"
+for file in $(find src sim/src -name '*.java'); do
+    mkdir -p "$sources/$(dirname "$file")"
+    awk '/\/\/##if LOGGING/ { skip = 1; next }
+         /\/\/##endif/ { if (skip) { skip = 0; next } }
+         !skip' "$file" > "$sources/$file"
+done
+
+javac -Xlint:all -Werror -d "$classes" $(find "$sources" -name '*.java')
+java -cp "$classes" com.sap.coap.sim.scenario.Scenarios "$@"
@@ -0,0 +1,62 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.ibm.saguaro.mrv6;
+
+/**
+ * Host stand-in: a UDP packet, the payload starts after room for the IPv6 and UDP headers.
+ */
+public final class Packet {
+    public static final int HEADER_SIZE = 48;
+    public static final int MTU = 1280;
+
+    public byte[] payloadBuf = new byte[MTU];
+    public int payloadOff = HEADER_SIZE;
+    public int payloadLen;
+    public int srcport;
+    public int dstport;
+    public byte[] srcaddr = new byte[16];
+    public byte[] dstaddr = new byte[16];
+
+    public void release() {
+        payloadLen = 0;
+    }
+
+    public void create(int dstport, int srcport, int len) {
+        if (HEADER_SIZE + len > MTU)
+            throw new com.ibm.saguaro.system.MoteException("packet too large " + len);
+        this.dstport = dstport;
+        this.srcport = srcport;
+        payloadOff = HEADER_SIZE;
+        payloadLen = len;
+    }
+}
@@ -0,0 +1,87 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.ibm.saguaro.mrv6;
+
+import com.sap.coap.sim.Datagram;
+import com.sap.coap.sim.Port;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * Host stand-in: a bound socket receives the datagrams the Radio delivers to its VirtualMote and port, send puts
+ * a packet on the Radio.
+ */
+public abstract class UDPSocket {
+    private final VirtualMote mote = VirtualMote.current();
+    private final Packet received = new Packet();
+    private int port = -1;
+
+    public void bind(int port) {
+        close();
+        this.port = port;
+        mote.bind(port, new Port() {
+            public void receive(Datagram datagram) {
+                deliver(datagram);
+            }
+
+            public void onEvent(int event, long param) {
+                UDPSocket.this.onEvent(event, param);
+            }
+        });
+    }
+
+    public void close() {
+        if (port >= 0)
+            mote.unbind(port);
+        port = -1;
+    }
+
+    public void send(Packet packet) {
+        mote.transmit(new Datagram(packet.srcaddr, packet.srcport, packet.dstaddr, packet.dstport, packet.payloadBuf, packet.payloadOff, packet.payloadLen));
+    }
+
+    public abstract int onPacket(Packet packet);
+
+    public void onEvent(int event, long param) {
+    }
+
+    private void deliver(Datagram datagram) {
+        datagram.copySrcAddress(received.srcaddr, 0);
+        datagram.copyDstAddress(received.dstaddr, 0);
+        received.srcport = datagram.getSrcPort();
+        received.dstport = datagram.getDstPort();
+        received.payloadOff = Packet.HEADER_SIZE;
+        received.payloadLen = datagram.getLength();
+        datagram.copyPayload(received.payloadBuf, received.payloadOff);
+        onPacket(received);
+    }
+}
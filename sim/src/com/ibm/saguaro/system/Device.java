@@ -0,0 +1,89 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.ibm.saguaro.system;
+
+import com.sap.coap.sim.DeviceModel;
+import com.sap.coap.sim.Simulation;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * Host stand-in: a read is delivered to the read handler after the conversion time of the DeviceModel the
+ * VirtualMote has for the opened id. Closing the device drops a pending read.
+ */
+public class Device {
+    public static final int ASAP = 0;
+    public static final int TIMED = 1;
+
+    public static final int FLAG_FAILED = 0x01;
+
+    private final VirtualMote mote = VirtualMote.current();
+    private DeviceModel model;
+    private DevCallback handler;
+    private Simulation.Event pending;
+
+    public void open(int id, byte[] args, int off, int len) {
+        model = mote.getDevice(id);
+        if (model == null)
+            throw new MoteException("no device " + id);
+    }
+
+    public void setReadHandler(DevCallback handler) {
+        this.handler = handler;
+    }
+
+    public void read(int mode, final int len, long time) {
+        if (model == null)
+            throw new MoteException("device not open");
+        if (pending != null)
+            pending.cancel();
+        long start = mode == TIMED ? time : Time.currentTicks();
+        final DeviceModel device = model;
+        pending = mote.schedule(start + Time.toTickSpan(Time.MILLISECS, device.getConversionTime()), new Runnable() {
+            public void run() {
+                pending = null;
+                byte[] data = new byte[len];
+                int flags = device.read(mote, data, len);
+                if (handler != null)
+                    handler.invoke(flags, data, len, 0, Time.currentTicks());
+            }
+        });
+    }
+
+    public void close() {
+        if (pending != null) {
+            pending.cancel();
+            pending = null;
+        }
+        model = null;
+    }
+}
@@ -0,0 +1,102 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.ibm.saguaro.system;
+
+import com.sap.coap.sim.Simulation;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * Host stand-in of the memory and number helpers. Persistent data is ordinary memory, it does not survive the
+ * VirtualMote.
+ */
+public final class Util {
+    public static void copyData(Object src, int srcOff, Object dst, int dstOff, int len) {
+        System.arraycopy(src, srcOff, dst, dstOff, len);
+    }
+
+    /**
+     * Returns 0xFFFF if the ranges are equal, the index of the first difference otherwise.
+     */
+    public static int compareData(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        for (int i = 0; i < len; i++)
+            if (a[aOff + i] != b[bOff + i])
+                return i;
+        return 0xFFFF;
+    }
+
+    public static void fillData(byte[] buf, int off, int len, int value) {
+        for (int i = 0; i < len; i++)
+            buf[off + i] = (byte) value;
+    }
+
+    public static void updatePersistentData(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        System.arraycopy(src, srcOff, dst, dstOff, len);
+    }
+
+    public static int get16(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8);
+    }
+
+    public static void set16(byte[] buf, int off, int value) {
+        buf[off] = (byte) value;
+        buf[off + 1] = (byte) (value >> 8);
+    }
+
+    public static int get16be(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF);
+    }
+
+    public static void set16be(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >> 8);
+        buf[off + 1] = (byte) value;
+    }
+
+    public static int get32be(byte[] buf, int off) {
+        return (get16be(buf, off) << 16) | get16be(buf, off + 2);
+    }
+
+    public static void set32be(byte[] buf, int off, int value) {
+        set16be(buf, off, value >>> 16);
+        set16be(buf, off + 2, value);
+    }
+
+    /**
+     * Random value 0 to 255, seeded by the Simulation.
+     */
+    public static int rand8() {
+        VirtualMote mote = VirtualMote.current();
+        if (mote != null)
+            return mote.getRandom().nextInt(256);
+        return Simulation.active().getRandom().nextInt(256);
+    }
+}
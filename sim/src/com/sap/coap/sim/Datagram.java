@@ -0,0 +1,92 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+/**
+ * A UDP datagram on the simulated radio, addresses are 16 byte IPv6 addresses. The constructor copies its
+ * arguments, a datagram does not change once sent.
+ */
+public final class Datagram {
+    public static final int ADDRESS_SIZE = 16;
+
+    private final byte[] srcaddr = new byte[ADDRESS_SIZE];
+    private final byte[] dstaddr = new byte[ADDRESS_SIZE];
+    private final int srcport;
+    private final int dstport;
+    private final byte[] payload;
+
+    public Datagram(byte[] srcaddr, int srcport, byte[] dstaddr, int dstport, byte[] buffer, int offset, int length) {
+        System.arraycopy(srcaddr, 0, this.srcaddr, 0, ADDRESS_SIZE);
+        System.arraycopy(dstaddr, 0, this.dstaddr, 0, ADDRESS_SIZE);
+        this.srcport = srcport;
+        this.dstport = dstport;
+        payload = new byte[length];
+        System.arraycopy(buffer, offset, payload, 0, length);
+    }
+
+    public byte[] getSrcAddress() {
+        return srcaddr.clone();
+    }
+
+    public byte[] getDstAddress() {
+        return dstaddr.clone();
+    }
+
+    public void copySrcAddress(byte[] buffer, int offset) {
+        System.arraycopy(srcaddr, 0, buffer, offset, ADDRESS_SIZE);
+    }
+
+    public void copyDstAddress(byte[] buffer, int offset) {
+        System.arraycopy(dstaddr, 0, buffer, offset, ADDRESS_SIZE);
+    }
+
+    public int getSrcPort() {
+        return srcport;
+    }
+
+    public int getDstPort() {
+        return dstport;
+    }
+
+    public int getLength() {
+        return payload.length;
+    }
+
+    public void copyPayload(byte[] buffer, int offset) {
+        System.arraycopy(payload, 0, buffer, offset, payload.length);
+    }
+
+    public byte[] getPayload() {
+        return payload.clone();
+    }
+}
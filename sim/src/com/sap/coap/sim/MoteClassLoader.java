@@ -0,0 +1,87 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads the code of one VirtualMote: the assembly (com.sap.coap) and the stand-ins of the Mote Runner APIs
+ * (com.ibm.saguaro, com.ibm.iris) are loaded by every mote itself, so each mote has its own static state like on
+ * a real mote. The simulation classes (com.sap.coap.sim) and the JDK are shared and are what the mote code and
+ * the host side talk through.
+ */
+public final class MoteClassLoader extends URLClassLoader {
+    private static final String SIMULATION_PACKAGE = "com.sap.coap.sim.";
+
+    public MoteClassLoader(URL[] classPath, ClassLoader parent) {
+        super(classPath, parent);
+    }
+
+    /**
+     * A loader for the class path of the JVM.
+     */
+    public static MoteClassLoader fromClassPath() {
+        String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+        URL[] urls = new URL[entries.length];
+        try {
+            for (int i = 0; i < entries.length; i++)
+                urls[i] = new File(entries[i]).toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        return new MoteClassLoader(urls, MoteClassLoader.class.getClassLoader());
+    }
+
+    static boolean isMoteClass(String name) {
+        if (name.startsWith(SIMULATION_PACKAGE))
+            return false;
+        return name.startsWith("com.sap.coap.") || name.startsWith("com.ibm.saguaro.") || name.startsWith("com.ibm.iris.");
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!isMoteClass(name))
+            return super.loadClass(name, resolve);
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null)
+                c = findClass(name);
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The radio between the endpoints of a simulation, a single shared channel all of them hear directly:
+ *
+ *  - a datagram occupies the channel for its airtime at the bitrate, datagrams sent while the channel is busy
+ *    queue up behind it,
+ *  - it is lost with probability loss, otherwise delivered after its airtime plus a delay drawn uniformly from
+ *    [minDelay, maxDelay], which reorders datagrams if the delays differ by more than their airtimes.
+ *
+ * 6LoWPAN fragmentation and mesh routing are not modelled, FRAME_OVERHEAD stands in for the compressed headers.
+ */
+public final class Radio {
+    // MAC and compressed IPv6/UDP headers of a frame, in bytes
+    public static final int FRAME_OVERHEAD = 25;
+
+    private final Simulation simulation;
+    private final Map<ByteBuffer, Endpoint> endpoints = new HashMap<ByteBuffer, Endpoint>();
+
+    private double loss = 0;
+    private long minDelay = 0;
+    private long maxDelay = 0;
+    private int bitrate = 250000;
+    private long channelFree = 0;
+
+    private long sent = 0;
+    private long lost = 0;
+    private long unreachable = 0;
+    private long delivered = 0;
+
+    public Radio(Simulation simulation) {
+        this.simulation = simulation;
+    }
+
+    /**
+     * Probability a datagram is lost, 0 to 1.
+     */
+    public void setLoss(double probability) {
+        loss = probability;
+    }
+
+    /**
+     * Bounds of the delay of a datagram after its airtime, in milliseconds.
+     */
+    public void setDelay(int minMillis, int maxMillis) {
+        minDelay = simulation.toTicks(minMillis);
+        maxDelay = simulation.toTicks(maxMillis);
+    }
+
+    /**
+     * Bitrate of the channel in bits per second, 0 for no airtime. 250 kbit/s of 802.15.4 by default.
+     */
+    public void setBitrate(int bitsPerSecond) {
+        bitrate = bitsPerSecond;
+    }
+
+    public void attach(byte[] address, Endpoint endpoint) {
+        endpoints.put(key(address), endpoint);
+    }
+
+    public void detach(byte[] address) {
+        endpoints.remove(key(address));
+    }
+
+    public void transmit(final Datagram datagram) {
+        sent++;
+        long time = simulation.now();
+        if (bitrate > 0) {
+            long start = channelFree > time ? channelFree : time;
+            time = start + (datagram.getLength() + FRAME_OVERHEAD) * 8 * Simulation.TICKS_PER_SECOND / bitrate;
+            channelFree = time;
+        }
+        if (simulation.getRandom().nextDouble() < loss) {
+            lost++;
+            return;
+        }
+        if (maxDelay > minDelay)
+            time += minDelay + (long) (simulation.getRandom().nextDouble() * (maxDelay - minDelay));
+        else
+            time += minDelay;
+
+        simulation.schedule(time, new Runnable() {
+            public void run() {
+                deliver(datagram);
+            }
+        });
+    }
+
+    private void deliver(Datagram datagram) {
+        Endpoint endpoint = endpoints.get(key(datagram.getDstAddress()));
+        if (endpoint == null) {
+            unreachable++;
+            return;
+        }
+        delivered++;
+        endpoint.receive(datagram);
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getUnreachable() {
+        return unreachable;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    private static ByteBuffer key(byte[] address) {
+        byte[] copy = new byte[Datagram.ADDRESS_SIZE];
+        System.arraycopy(address, 0, copy, 0, Datagram.ADDRESS_SIZE);
+        return ByteBuffer.wrap(copy);
+    }
+}
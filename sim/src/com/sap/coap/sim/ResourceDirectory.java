@@ -0,0 +1,242 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+
+/**
+ * A resource directory as ResourceDirectoryClient talks to it, draft-ietf-core-resource-directory-01, on the host
+ * side of a simulation:
+ *
+ *  - POST /rd?ep=name&lt=lifetime registers the links in the payload under rd/n and answers 2.01 with that
+ *    location, a registration of a known endpoint replaces it,
+ *  - POST /rd/n updates the registration, the links if there is a payload, and answers 2.04, or 4.04 if there
+ *    is no such registration, see remove.
+ *
+ * Payloads may come block-wise (Block1), every block but the last is answered 2.31. Responses are piggybacked,
+ * a retransmitted request is handled again, which gives the same result. Lifetimes are recorded, not enforced.
+ */
+public final class ResourceDirectory implements Endpoint {
+    private static final int OPTION_LOCATION_PATH = 8;
+    private static final int OPTION_URI_PATH = 11;
+    private static final int OPTION_URI_QUERY = 15;
+    private static final int OPTION_BLOCK1 = 27;
+
+    private static final byte CREATED = Message.createResponseCode((byte) 2, (byte) 1);
+    private static final byte CHANGED = Message.createResponseCode((byte) 2, (byte) 4);
+    private static final byte CONTINUE = Message.createResponseCode((byte) 2, (byte) 31);
+    private static final byte BAD_REQUEST = Message.createResponseCode((byte) 4, (byte) 0);
+    private static final byte NOT_FOUND = Message.createResponseCode((byte) 4, (byte) 4);
+    private static final byte METHOD_NOT_ALLOWED = Message.createResponseCode((byte) 4, (byte) 5);
+    private static final byte INCOMPLETE = Message.createResponseCode((byte) 4, (byte) 8);
+
+    /**
+     * A registration as the directory holds it.
+     */
+    public static final class Registration {
+        public final String endpoint;
+        public final String location;
+        public int lifetime;
+        public String links;
+        public int updates = 0;
+
+        Registration(String endpoint, String location) {
+            this.endpoint = endpoint;
+            this.location = location;
+        }
+    }
+
+    private final Radio radio;
+    private final byte[] address;
+    private final int port;
+    private final MessageWriter writer = new MessageWriter();
+    private final Map<String, Registration> registrations = new LinkedHashMap<String, Registration>();
+    private int nextLocation = 1;
+    private long requests = 0;
+
+    // the block-wise upload in progress, only one at a time
+    private final ByteArrayOutputStream upload = new ByteArrayOutputStream();
+
+    public ResourceDirectory(Radio radio, byte[] address, int port) {
+        this.radio = radio;
+        this.address = address.clone();
+        this.port = port;
+        radio.attach(address, this);
+    }
+
+    /**
+     * The registration of endpoint, null if there is none.
+     */
+    public Registration getRegistration(String endpoint) {
+        return registrations.get(endpoint);
+    }
+
+    public List<Registration> getRegistrations() {
+        return new ArrayList<Registration>(registrations.values());
+    }
+
+    /**
+     * Drops the registration of endpoint, as if it expired, its next update is answered 4.04.
+     */
+    public void remove(String endpoint) {
+        registrations.remove(endpoint);
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public void receive(Datagram datagram) {
+        byte[] frame = datagram.getPayload();
+        Message request = new Message();
+        if (request.decode(frame, 0, frame.length, false) != 0)
+            return;
+        byte type = request.getType();
+        byte code = request.getCode();
+        // responses to the directory and empty messages, e.g. the ACK of a separate response, are ignored
+        if ((type != Message.CON && type != Message.NON) || code == Message.EMPTY || (code & 0xFF) >= 32)
+            return;
+        requests++;
+
+        writer.start(type == Message.CON ? Message.ACK : Message.NON, BAD_REQUEST, request.getMessageId(), request);
+        handle(request);
+        byte[] response = new byte[writer.getLength()];
+        writer.encodeTo(response, 0);
+        radio.transmit(new Datagram(address, port, datagram.getSrcAddress(), datagram.getSrcPort(), response, 0, response.length));
+    }
+
+    private void handle(Message request) {
+        if (request.getCode() != Message.POST) {
+            writer.setCode(METHOD_NOT_ALLOWED);
+            return;
+        }
+        List<String> path = values(request, OPTION_URI_PATH);
+        if (path.size() == 0 || !path.get(0).equals("rd")) {
+            writer.setCode(NOT_FOUND);
+            return;
+        }
+
+        byte[] payload = request.payloadLength == 0 ? new byte[0] : copy(request.payload, request.payloadOffset, request.payloadLength);
+        int block = request.getIndexOfOptionWithId(OPTION_BLOCK1, 0);
+        int value = block < 0 ? 0 : request.getUintValueOfOptionWithIndex(block);
+        if (block >= 0) {
+            int offset = (value >> 4) << ((value & 0x07) + 4);
+            if (offset > upload.size()) {
+                writer.setCode(INCOMPLETE);
+                return;
+            }
+            // a retransmitted block overwrites itself
+            byte[] received = upload.toByteArray();
+            upload.reset();
+            upload.write(received, 0, offset);
+            upload.write(payload, 0, payload.length);
+            if ((value & 0x08) != 0) {
+                writer.setCode(CONTINUE);
+                writer.addUintOption(OPTION_BLOCK1, value);
+                return;
+            }
+            payload = upload.toByteArray();
+            upload.reset();
+        }
+
+        if (path.size() == 1)
+            register(request, payload);
+        else
+            update(path, payload);
+        // after the Location-Path of a registration, options go in ascending order
+        if (block >= 0)
+            writer.addUintOption(OPTION_BLOCK1, value);
+    }
+
+    private void register(Message request, byte[] payload) {
+        String endpoint = null;
+        int lifetime = 86400;
+        for (String query : values(request, OPTION_URI_QUERY)) {
+            if (query.startsWith("ep="))
+                endpoint = query.substring(3);
+            else if (query.startsWith("lt="))
+                lifetime = Integer.parseInt(query.substring(3));
+        }
+        if (endpoint == null || payload.length == 0)
+            return; // 4.00
+
+        Registration registration = new Registration(endpoint, Integer.toString(nextLocation++));
+        registration.lifetime = lifetime;
+        registration.links = new String(payload);
+        registrations.put(endpoint, registration);
+
+        writer.setCode(CREATED);
+        byte[] rd = "rd".getBytes();
+        byte[] location = registration.location.getBytes();
+        writer.addOption(OPTION_LOCATION_PATH, rd, 0, rd.length);
+        writer.addOption(OPTION_LOCATION_PATH, location, 0, location.length);
+    }
+
+    private void update(List<String> path, byte[] payload) {
+        Registration registration = null;
+        if (path.size() == 2) {
+            for (Registration candidate : registrations.values())
+                if (candidate.location.equals(path.get(1)))
+                    registration = candidate;
+        }
+        if (registration == null) {
+            writer.setCode(NOT_FOUND);
+            return;
+        }
+        if (payload.length > 0)
+            registration.links = new String(payload);
+        registration.updates++;
+        writer.setCode(CHANGED);
+    }
+
+    private static List<String> values(Message message, int number) {
+        List<String> values = new ArrayList<String>();
+        for (int i = message.getIndexOfOptionWithId(number, 0); i >= 0; i = message.getIndexOfOptionWithId(number, values.size())) {
+            values.add(new String(message.options, message.getValueOffsetOfOptionWithIndex(i), message.getValueSizeOfOptionWithIndex(i)));
+        }
+        return values;
+    }
+
+    private static byte[] copy(byte[] buffer, int offset, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, offset, copy, 0, length);
+        return copy;
+    }
+}
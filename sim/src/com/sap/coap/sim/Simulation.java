@@ -0,0 +1,185 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+import java.io.PrintStream;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Virtual clock and event queue of a host simulation. Everything that happens in a simulation, timer alarms,
+ * radio deliveries and sensor readings, is an Event at a virtual time in ticks; run and runFor execute them in
+ * order of time, events at the same time in the order they were scheduled. Nothing depends on the wall clock,
+ * a simulation started with the same seed does the same.
+ *
+ * The stand-ins of the Mote Runner APIs (Time, Util.rand8) use the active simulation, the one created last, so a
+ * JVM runs one simulation at a time.
+ */
+public final class Simulation {
+    // ticks of the virtual clock, the 32 kHz clock of a mote
+    public static final long TICKS_PER_SECOND = 32768;
+
+    private static Simulation active;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    private final Random random;
+    private long now = 0;
+    private long sequence = 0;
+    private PrintStream log;
+
+    public Simulation(long seed) {
+        random = new Random(seed);
+        active = this;
+    }
+
+    public static Simulation active() {
+        if (active == null)
+            throw new IllegalStateException("no simulation");
+        return active;
+    }
+
+    /**
+     * Current virtual time in ticks.
+     */
+    public long now() {
+        return now;
+    }
+
+    public long toTicks(long millis) {
+        return millis * TICKS_PER_SECOND / 1000;
+    }
+
+    public long toMillis(long ticks) {
+        return ticks * 1000 / TICKS_PER_SECOND;
+    }
+
+    /**
+     * Source of all randomness of the simulation, also seeds the motes.
+     */
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Stream the Logger output of the motes goes to, none by default.
+     */
+    public void setLog(PrintStream stream) {
+        log = stream;
+    }
+
+    public void log(String text) {
+        if (log != null)
+            log.println(text);
+    }
+
+    /**
+     * Schedules task at time, a time in the past means now.
+     */
+    public Event schedule(long time, Runnable task) {
+        Event event = new Event(time < now ? now : time, sequence++, task);
+        events.add(event);
+        return event;
+    }
+
+    /**
+     * Runs the next event, returns false if there is none.
+     */
+    public boolean step() {
+        Event event = events.poll();
+        while (event != null && event.cancelled)
+            event = events.poll();
+        if (event == null)
+            return false;
+        now = event.time;
+        event.task.run();
+        return true;
+    }
+
+    /**
+     * Runs all events up to time and advances the clock to it.
+     */
+    public void runUntil(long time) {
+        while (true) {
+            Event event = events.peek();
+            if (event != null && event.cancelled) {
+                // step would skip it and run the next event, which may be after time
+                events.poll();
+                continue;
+            }
+            if (event == null || event.time > time)
+                break;
+            step();
+        }
+        if (now < time)
+            now = time;
+    }
+
+    public void runFor(long millis) {
+        runUntil(now + toTicks(millis));
+    }
+
+    public int getPendingEvents() {
+        return events.size();
+    }
+
+    public static final class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable task;
+        private boolean cancelled = false;
+
+        private Event(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public int compareTo(Event other) {
+            if (time != other.time)
+                return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+import com.ibm.saguaro.system.Device;
+
+/**
+ * The humidity and temperature sensor of the MTS400 board as TemperatureResource reads it: 4 bytes, the raw
+ * humidity and the raw temperature, 14 bits big endian with temperature = raw * 0.01 - 40 degrees Celsius.
+ *
+ * The temperature follows a sine around a mean plus gaussian noise, reads fail with a given probability.
+ */
+public final class TemperatureSensor extends DeviceModel {
+    // conversion time of a 14 bit reading
+    private static final int CONVERSION_TIME = 210;
+
+    private double mean = 21.0;
+    private double amplitude = 2.0;
+    private long period = 600000;
+    private double noise = 0.05;
+    private double failure = 0;
+
+    private long reads = 0;
+
+    /**
+     * Sets the temperature: mean and amplitude in degrees Celsius, period in milliseconds, noise as standard
+     * deviation in degrees Celsius.
+     */
+    public void setTemperature(double mean, double amplitude, long periodMillis, double noise) {
+        this.mean = mean;
+        this.amplitude = amplitude;
+        this.period = periodMillis;
+        this.noise = noise;
+    }
+
+    /**
+     * Probability a read fails, 0 to 1.
+     */
+    public void setFailureProbability(double probability) {
+        failure = probability;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    @Override
+    public int getConversionTime() {
+        return CONVERSION_TIME;
+    }
+
+    @Override
+    public int read(VirtualMote mote, byte[] data, int len) {
+        reads++;
+        if (mote.getRandom().nextDouble() < failure)
+            return Device.FLAG_FAILED;
+
+        double millis = mote.getSimulation().toMillis(mote.getSimulation().now());
+        double celsius = mean + amplitude * Math.sin(2 * Math.PI * millis / period) + noise * mote.getRandom().nextGaussian();
+        int raw = (int) Math.round((celsius + 40) * 100) & 0x3FFF;
+        // 50 % relative humidity
+        int humidity = 0x0640;
+
+        byte[] reading = new byte[] { (byte) (humidity >> 8), (byte) humidity, (byte) (raw >> 8), (byte) raw };
+        System.arraycopy(reading, 0, data, 0, len < reading.length ? len : reading.length);
+        return 0;
+    }
+}
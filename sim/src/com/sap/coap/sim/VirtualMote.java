@@ -0,0 +1,309 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntBinaryOperator;
+
+import com.ibm.iris.IRIS;
+import com.ibm.saguaro.mrv6.Mac;
+import com.ibm.saguaro.system.Assembly;
+
+/**
+ * A mote of a simulation: runs an unchanged assembly, e.g. CoapSensorDemo, in its own MoteClassLoader and
+ * attaches it to the Radio under its address. Mote code only runs through the mote: boot, its timers, its
+ * devices and the datagrams it receives, with the mote as current, which is how the stand-ins of the Mote Runner
+ * APIs find the mote they act for.
+ *
+ * A mote has a TemperatureSensor as IRIS.DID_MTS400_HUMID_TEMP, further devices can be attached.
+ */
+public final class VirtualMote implements Endpoint {
+    private static VirtualMote current;
+
+    private final Simulation simulation;
+    private final Radio radio;
+    private final byte[] address = new byte[Datagram.ADDRESS_SIZE];
+    private final Random random;
+
+    private final Map<Integer, Port> ports = new HashMap<Integer, Port>();
+    private final Map<Integer, DeviceModel> devices = new HashMap<Integer, DeviceModel>();
+    private final TemperatureSensor sensor = new TemperatureSensor();
+    private IntBinaryOperator systemInfo;
+
+    private ClassLoader loader;
+    private boolean deleted = false;
+    private int batteryStatus = 0xFF;
+    private int leds = 0;
+
+    private long received = 0;
+    private long transmitted = 0;
+    private long noPort = 0;
+
+    public VirtualMote(Simulation simulation, Radio radio, byte[] address) {
+        this.simulation = simulation;
+        this.radio = radio;
+        System.arraycopy(address, 0, this.address, 0, Datagram.ADDRESS_SIZE);
+        random = new Random(simulation.getRandom().nextLong());
+        devices.put(IRIS.DID_MTS400_HUMID_TEMP, sensor);
+        radio.attach(address, this);
+    }
+
+    /**
+     * The mote whose code runs, null on the host side.
+     */
+    public static VirtualMote current() {
+        return current;
+    }
+
+    /**
+     * Loads assemblyClass and runs its static initializer, which starts the application.
+     */
+    public void boot(final String assemblyClass) {
+        loader = MoteClassLoader.fromClassPath();
+        run(new Runnable() {
+            public void run() {
+                try {
+                    Class.forName(assemblyClass, true, loader);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calls a static method of the mote code, e.g. to start a ResourceDirectoryClient, and returns its result.
+     */
+    public Object invokeStatic(final String className, final String methodName, final Class<?>[] types, final Object... args) {
+        final Object[] result = new Object[1];
+        run(new Runnable() {
+            public void run() {
+                try {
+                    Method method = loader.loadClass(className).getMethod(methodName, types);
+                    result[0] = method.invoke(null, args);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * Runs task as code of this mote.
+     */
+    public void run(Runnable task) {
+        if (deleted)
+            return;
+        VirtualMote previous = current;
+        current = this;
+        try {
+            task.run();
+        } finally {
+            current = previous;
+        }
+    }
+
+    /**
+     * Runs task as code of this mote at time, unless the mote is deleted by then.
+     */
+    public Simulation.Event schedule(long time, final Runnable task) {
+        return simulation.schedule(time, new Runnable() {
+            public void run() {
+                VirtualMote.this.run(task);
+            }
+        });
+    }
+
+    /**
+     * Signals the loss of the parent in the routing tree, Mac.EV_PARENT_LOST, to the bound sockets.
+     */
+    public void loseParent() {
+        signal(Mac.EV_PARENT_LOST, 0);
+    }
+
+    public void signal(final int event, final long param) {
+        run(new Runnable() {
+            public void run() {
+                for (Port port : ports.values().toArray(new Port[0]))
+                    port.onEvent(event, param);
+            }
+        });
+    }
+
+    /**
+     * Deletes the assembly: it gets Assembly.SYSEV_DELETED, then the mote is detached and none of its code runs
+     * any more.
+     */
+    public void delete() {
+        if (systemInfo != null) {
+            run(new Runnable() {
+                public void run() {
+                    systemInfo.applyAsInt(Assembly.SYSEV_DELETED, 0);
+                }
+            });
+        }
+        deleted = true;
+        ports.clear();
+        radio.detach(address);
+    }
+
+    public void receive(final Datagram datagram) {
+        final Port port = ports.get(datagram.getDstPort());
+        if (port == null || deleted) {
+            noPort++;
+            return;
+        }
+        received++;
+        run(new Runnable() {
+            public void run() {
+                port.receive(datagram);
+            }
+        });
+    }
+
+    // The stand-ins of the Mote Runner APIs use the following
+
+    public void bind(int port, Port handler) {
+        ports.put(port, handler);
+    }
+
+    public void unbind(int port) {
+        ports.remove(port);
+    }
+
+    /**
+     * Sends datagram, an unspecified (all zero) source address is replaced by the address of the mote.
+     */
+    public void transmit(Datagram datagram) {
+        if (deleted)
+            return;
+        transmitted++;
+        if (isUnspecified(datagram.getSrcAddress())) {
+            byte[] payload = datagram.getPayload();
+            datagram = new Datagram(address, datagram.getSrcPort(), datagram.getDstAddress(), datagram.getDstPort(), payload, 0, payload.length);
+        }
+        radio.transmit(datagram);
+    }
+
+    public DeviceModel getDevice(int id) {
+        return devices.get(id);
+    }
+
+    public void setSystemInfoHandler(IntBinaryOperator handler) {
+        systemInfo = handler;
+    }
+
+    public void log(int level, String text) {
+        simulation.log(simulation.toMillis(simulation.now()) + " " + toString() + " " + text);
+    }
+
+    public void setLed(int led, int state) {
+        if (state != 0)
+            leds |= 1 << led;
+        else
+            leds &= ~(1 << led);
+    }
+
+    // Configuration and state of the mote
+
+    public void attachDevice(int id, DeviceModel device) {
+        devices.put(id, device);
+    }
+
+    public TemperatureSensor getSensor() {
+        return sensor;
+    }
+
+    /**
+     * Battery status as Mote.queryInfo(Mote.BATTERY_STATUS) returns it, 0 to 255.
+     */
+    public void setBatteryStatus(int status) {
+        batteryStatus = status;
+    }
+
+    public int getBatteryStatus() {
+        return batteryStatus;
+    }
+
+    public int getLeds() {
+        return leds;
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public byte[] getAddress() {
+        return address.clone();
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getTransmitted() {
+        return transmitted;
+    }
+
+    /**
+     * Datagrams received for a port nothing was bound to.
+     */
+    public long getNoPort() {
+        return noPort;
+    }
+
+    @Override
+    public String toString() {
+        return "mote-" + Integer.toHexString(((address[14] & 0xFF) << 8) | (address[15] & 0xFF));
+    }
+
+    private static boolean isUnspecified(byte[] address) {
+        for (int i = 0; i < address.length; i++)
+            if (address[i] != 0)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.util.Arrays;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+
+/**
+ * PUTs to config, which holds 256 bytes and is uploaded in blocks of 64: an empty body, a body whose last block
+ * is short, one whose last block is empty, uploads that are aborted or miss a block, which leave the
+ * configuration as it was, and a body that is too large.
+ */
+public final class Block1Scenario extends Scenario {
+    private static final int CAPACITY = 256;
+
+    public String getDescription() {
+        return "block-wise PUT: empty body, short and empty last block, aborted and incomplete uploads, too large";
+    }
+
+    protected void run() {
+        check(fetch("config", 2).length == 0, "config not empty at first");
+
+        // an empty body without Block1
+        put("config", -1, false, new byte[0], 0, 0);
+        expect(Message.ACK, "2.04");
+        check(fetch("config", 2).length == 0, "config not empty after an empty PUT");
+
+        // 100 bytes: a block of 64 and a last one of 36
+        byte[] hundred = body(100, 'a');
+        upload(hundred, 0);
+        check(Arrays.equals(fetch("config", 2), hundred), "config is not the 100 bytes uploaded");
+
+        // 128 bytes and an empty last block
+        byte[] full = body(128, 'b');
+        upload(full, 1);
+        check(Arrays.equals(fetch("config", 2), full), "config is not the 128 bytes uploaded with an empty last block");
+
+        // an upload that stops after its first block leaves the configuration as it was
+        byte[] other = body(200, 'c');
+        put("config", 0, true, other, 0, 64);
+        expect(Message.ACK, "2.31");
+        check(Arrays.equals(fetch("config", 2), full), "config changed by an unfinished upload");
+
+        // a missing block ends the upload with 4.08, the configuration is kept
+        put("config", 0, true, other, 0, 64);
+        expect(Message.ACK, "2.31");
+        put("config", 2, false, other, 128, 72);
+        expect(Message.ACK, "4.08");
+        check(Arrays.equals(fetch("config", 2), full), "config changed by an incomplete upload");
+
+        // more than the capacity is refused with 4.13 and the capacity in Size1
+        MessageWriter writer = client.start(Message.CON, Message.PUT, nextMessageId(), null, "config");
+        writer.addUintOption(OPTION_BLOCK1, 0x08 | 2);
+        writer.addUintOption(OPTION_SIZE1, CAPACITY + 1);
+        writer.setPayload(other, 0, 64);
+        client.send();
+        simulation.runFor(500);
+        Message refused = expect(Message.ACK, "4.13");
+        check(option(refused, OPTION_SIZE1) == CAPACITY, "Size1 " + option(refused, OPTION_SIZE1));
+        check(Arrays.equals(fetch("config", 2), full), "config changed by a refused upload");
+        expectNothing();
+    }
+
+    // uploads body to config in blocks of 64, followed by emptyBlocks empty ones, the last without More
+    private void upload(byte[] body, int emptyBlocks) {
+        int blocks = (body.length + 63) / 64 + emptyBlocks;
+        for (int num = 0; num < blocks; num++) {
+            int offset = Math.min(num * 64, body.length);
+            int length = Math.min(64, body.length - offset);
+            boolean more = num < blocks - 1;
+            put("config", num, more, body, offset, length);
+            Message response = expect(Message.ACK, more ? "2.31" : "2.04");
+            check(option(response, OPTION_BLOCK1) == ((num << 4) | (more ? 0x08 : 0) | 2), "block " + num + " answered with Block1 " + option(response, OPTION_BLOCK1));
+        }
+    }
+
+    // a CON PUT with block num of 64 bytes, without Block1 option if num is -1
+    private void put(String path, int num, boolean more, byte[] body, int offset, int length) {
+        MessageWriter writer = client.start(Message.CON, Message.PUT, nextMessageId(), null, path);
+        if (num >= 0)
+            writer.addUintOption(OPTION_BLOCK1, (num << 4) | (more ? 0x08 : 0) | 2);
+        writer.setPayload(body, offset, length);
+        client.send();
+        simulation.runFor(500);
+    }
+
+    private static byte[] body(int length, char first) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++)
+            body[i] = (byte) (first + i % 26);
+        return body;
+    }
+}
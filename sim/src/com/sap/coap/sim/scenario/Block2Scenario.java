@@ -0,0 +1,79 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import com.sap.coap.Message;
+
+/**
+ * Block-wise GETs of foobar, 304 bytes, four blocks of 64 bytes (the largest size the link MTU of the demo
+ * allows) and a last one of 48: the server splits it without being asked, the client may choose smaller but
+ * not larger blocks, and a block beyond the end is answered 4.02.
+ */
+public final class Block2Scenario extends Scenario {
+    private static final int LENGTH = 304;
+
+    public String getDescription() {
+        return "block-wise GET: server initiated, smaller block size, last block, block beyond the end";
+    }
+
+    protected void run() {
+        // no Block2 asked for: the first block, with the total size
+        client.start(Message.CON, Message.GET, nextMessageId(), null, "foobar");
+        client.send();
+        simulation.runFor(500);
+        Message first = expect(Message.ACK, "2.05");
+        check(option(first, OPTION_BLOCK2) == (0x08 | 2), "first block with Block2 " + option(first, OPTION_BLOCK2));
+        check(option(first, OPTION_SIZE2) == LENGTH, "Size2 " + option(first, OPTION_SIZE2));
+        check(first.payloadLength == 64, "first block of " + first.payloadLength + " bytes");
+
+        byte[] body = fetch("foobar", 2);
+        check(body.length == LENGTH, "fetched " + body.length + " bytes in blocks of 64");
+        check(new String(body).startsWith("ABCDEFGHIJ") && new String(body).endsWith("ich komme!"), "wrong body: " + new String(body));
+        byte[] small = fetch("foobar", 1);
+        check(new String(small).equals(new String(body)), "different body in blocks of 32");
+
+        // a larger block size than the server supports is reduced to 64 bytes
+        client.start(Message.CON, Message.GET, nextMessageId(), null, "foobar").addUintOption(OPTION_BLOCK2, 6);
+        client.send();
+        simulation.runFor(500);
+        Message reduced = expect(Message.ACK, "2.05");
+        check(option(reduced, OPTION_BLOCK2) == (0x08 | 2), "block size not reduced: Block2 " + option(reduced, OPTION_BLOCK2));
+
+        // blocks 0 to 4 exist
+        client.start(Message.CON, Message.GET, nextMessageId(), null, "foobar").addUintOption(OPTION_BLOCK2, (5 << 4) | 2);
+        client.send();
+        simulation.runFor(500);
+        expect(Message.ACK, "4.02");
+        expectNothing();
+    }
+}
@@ -0,0 +1,197 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.sim.Datagram;
+import com.sap.coap.sim.Endpoint;
+import com.sap.coap.sim.Radio;
+import com.sap.coap.sim.Simulation;
+
+/**
+ * A CoAP client on the host side of a scenario: sends requests built with a MessageWriter, or raw frames, to one
+ * server and queues what it receives, decoded, for the scenario to check. It does nothing by itself, e.g. a
+ * confirmable response is only acknowledged by ack.
+ */
+public final class CoapClient implements Endpoint {
+    public static final int PORT = 5683;
+
+    private static final int OPTION_URI_PATH = 11;
+
+    private final Simulation simulation;
+    private final Radio radio;
+    private final byte[] address;
+    private final byte[] serverAddress;
+    private final int serverPort;
+    private final MessageWriter writer = new MessageWriter();
+    private final Deque<Received> received = new ArrayDeque<Received>();
+
+    public CoapClient(Simulation simulation, Radio radio, byte[] address, byte[] serverAddress, int serverPort) {
+        this.simulation = simulation;
+        this.radio = radio;
+        this.address = address.clone();
+        this.serverAddress = serverAddress.clone();
+        this.serverPort = serverPort;
+        radio.attach(address, this);
+    }
+
+    /**
+     * A message received by the client, with the virtual time it arrived.
+     */
+    public static final class Received {
+        public final Message message;
+        public final byte[] frame;
+        public final long millis;
+
+        Received(Message message, byte[] frame, long millis) {
+            this.message = message;
+            this.frame = frame;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return millis + " ms " + describe(message);
+        }
+    }
+
+    /**
+     * Starts a message in the writer of the client, options are added in ascending order, see addPath.
+     */
+    public MessageWriter start(byte type, byte code, int messageId, byte[] token) {
+        writer.start(type, code, messageId, token, 0, (byte) (token == null ? 0 : token.length));
+        return writer;
+    }
+
+    /**
+     * Starts a request to path (segments separated by /, may be empty), further options with numbers above
+     * Uri-Path (11) can be added before it is sent.
+     */
+    public MessageWriter start(byte type, byte code, int messageId, byte[] token, String path) {
+        start(type, code, messageId, token);
+        addPath(path);
+        return writer;
+    }
+
+    /**
+     * Adds the Uri-Path options of path to the message in the writer.
+     */
+    public void addPath(String path) {
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                byte[] value = segment.getBytes();
+                writer.addOption(OPTION_URI_PATH, value, 0, value.length);
+            }
+        }
+    }
+
+    /**
+     * Sends the message in the writer of the client and returns it encoded, e.g. to send it again with sendRaw.
+     */
+    public byte[] send() {
+        byte[] frame = new byte[writer.getLength()];
+        writer.encodeTo(frame, 0);
+        sendRaw(frame);
+        return frame;
+    }
+
+    public void sendRaw(byte[] frame) {
+        radio.transmit(new Datagram(address, PORT, serverAddress, serverPort, frame, 0, frame.length));
+    }
+
+    /**
+     * Acknowledges a confirmable message received from the server.
+     */
+    public void ack(Message message) {
+        sendEmpty(Message.ACK, message.getMessageId());
+    }
+
+    public void sendEmpty(byte type, int messageId) {
+        start(type, Message.EMPTY, messageId, null);
+        send();
+    }
+
+    public void receive(Datagram datagram) {
+        byte[] frame = datagram.getPayload();
+        Message message = new Message();
+        if (message.decode(frame, 0, frame.length, false) != 0)
+            throw new ScenarioFailure("undecodable message from the server: " + hex(frame));
+        received.add(new Received(message, frame, simulation.toMillis(simulation.now())));
+    }
+
+    /**
+     * The oldest message received and not polled yet, null if there is none.
+     */
+    public Received poll() {
+        return received.poll();
+    }
+
+    public int getPending() {
+        return received.size();
+    }
+
+    public void clear() {
+        received.clear();
+    }
+
+    public byte[] getAddress() {
+        return address.clone();
+    }
+
+    /**
+     * Type, code and message id of message, e.g. "ACK 2.05 mid 1".
+     */
+    public static String describe(Message message) {
+        String[] types = { "CON", "NON", "ACK", "RST" };
+        return types[message.getType()] + " " + code(message.getCode()) + " mid " + message.getMessageId();
+    }
+
+    /**
+     * A code as class.detail, e.g. "2.05", or "0.00" for an empty message.
+     */
+    public static String code(int code) {
+        int detail = code & 0x1F;
+        return ((code & 0xFF) >> 5) + "." + (detail < 10 ? "0" : "") + detail;
+    }
+
+    public static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder();
+        for (byte b : bytes)
+            text.append(String.format("%02x", b & 0xFF));
+        return text.toString();
+    }
+}
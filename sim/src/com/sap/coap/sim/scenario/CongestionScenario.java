@@ -0,0 +1,104 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import com.sap.coap.CongestionControl;
+import com.sap.coap.Message;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * The congestion control of the CONs the server sends, with separate responses to a client, the sensor fails
+ * every read: NSTART 1, i.e. the second separate response waits until the first one is acknowledged, and an RTO
+ * that follows the round trip times, 10 ms on this radio, after prompt ACKs.
+ */
+public final class CongestionScenario extends Scenario {
+    public String getDescription() {
+        return "one outstanding CON per client (NSTART), retransmission timeout adapted to prompt ACKs";
+    }
+
+    protected void configure(VirtualMote mote) {
+        mote.getSensor().setFailureProbability(1);
+    }
+
+    protected void run() {
+        // two deferred requests, each gets its empty ACK
+        int first = nextMessageId();
+        int second = nextMessageId();
+        client.start(Message.CON, Message.GET, first, new byte[] { 1 }, "sensor/temp");
+        client.send();
+        client.start(Message.CON, Message.GET, second, new byte[] { 2 }, "sensor/temp");
+        client.send();
+        simulation.runFor(1500);
+        expect(Message.ACK, "0.00", first);
+        expect(Message.ACK, "0.00", second);
+
+        // only the first separate response is sent, and resent, while it is not acknowledged
+        Message response = awaitResponse(20000);
+        int token = response.token[response.tokenOffset];
+        simulation.runFor(20000);
+        for (CoapClient.Received received = client.poll(); received != null; received = client.poll()) {
+            check(received.message.getMessageId() == response.getMessageId(), "second CON while the first is outstanding: " + received);
+        }
+        client.ack(response);
+
+        // the other one follows, acknowledged right away
+        Message other = awaitResponse(5000);
+        check(other.token[other.tokenOffset] != token, "first response sent again after its ACK");
+        client.ack(other);
+        simulation.runFor(1000);
+        expectNothing();
+
+        // after prompt ACKs the first timeout is below ACK_TIMEOUT, the least an RTO of ACK_TIMEOUT gives when
+        // dithered by 1 to 1.5, how far below depends on the dithering and on the aging of the RTO in between
+        for (int i = 0; i < 3; i++) {
+            client.start(Message.CON, Message.GET, nextMessageId(), new byte[] { 3 }, "sensor/temp");
+            client.send();
+            simulation.runFor(1500);
+            expect(Message.ACK, "0.00");
+            response = awaitResponse(20000);
+            if (i < 2)
+                client.ack(response);
+        }
+        long sent = simulation.toMillis(simulation.now());
+        awaitResponse(5000);
+        long timeout = simulation.toMillis(simulation.now()) - sent;
+        check(timeout < CongestionControl.ACK_TIMEOUT, "retransmitted after " + timeout + " ms");
+    }
+
+    // waits up to millis for the next CON 5.03, in steps of 10 ms
+    private Message awaitResponse(int millis) {
+        for (int t = 0; t < millis && client.getPending() == 0; t += 10)
+            simulation.runFor(10);
+        return expect(Message.CON, "5.03");
+    }
+}
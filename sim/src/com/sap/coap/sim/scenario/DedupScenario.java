@@ -0,0 +1,81 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.util.Arrays;
+
+import com.sap.coap.Message;
+
+/**
+ * Retransmitted requests: one answered already gets the same reply again, without being handled a second time,
+ * one whose response is still deferred is dropped.
+ */
+public final class DedupScenario extends Scenario {
+    public String getDescription() {
+        return "a retransmitted CON is answered from the dedup cache, or dropped while its response is deferred";
+    }
+
+    protected void run() {
+        // the battery goes from 80% to 40% between request and retransmission, the replay still says 80%
+        mote.setBatteryStatus(200);
+        int mid = nextMessageId();
+        client.start(Message.CON, Message.GET, mid, new byte[] { 1 }, "status");
+        byte[] request = client.send();
+        simulation.runFor(500);
+        byte[] reply = client.poll().frame;
+        mote.setBatteryStatus(100);
+
+        client.sendRaw(request);
+        simulation.runFor(500);
+        CoapClient.Received replay = client.poll();
+        check(replay != null && Arrays.equals(replay.frame, reply), "retransmission not answered with the same reply: " + replay);
+        check(payload(replay.message).startsWith(" 80"), "status handled again: " + payload(replay.message));
+
+        // a new message id is a new request
+        client.start(Message.CON, Message.GET, nextMessageId(), new byte[] { 2 }, "status");
+        client.send();
+        simulation.runFor(500);
+        Message fresh = expect(Message.ACK, "2.05");
+        check(payload(fresh).startsWith(" 40"), "new request not handled: " + payload(fresh));
+
+        // sensor/temp defers the first GET until the sensor delivered a reading, the retransmission is dropped
+        mid = nextMessageId();
+        client.start(Message.CON, Message.GET, mid, new byte[] { 3 }, "sensor/temp");
+        request = client.send();
+        simulation.runFor(50);
+        client.sendRaw(request);
+        simulation.runFor(2000);
+        expect(Message.ACK, "2.05", mid);
+        expectNothing();
+    }
+}
@@ -0,0 +1,89 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import com.sap.coap.Message;
+
+/**
+ * Messages the server cannot decode: a CON is answered 4.00 without token, anything else is ignored, and the
+ * server keeps answering afterwards.
+ */
+public final class MalformedScenario extends Scenario {
+    public String getDescription() {
+        return "undecodable CONs are answered 4.00 without token, other undecodable messages ignored";
+    }
+
+    protected void run() {
+        // token lengths 9 to 15 are reserved
+        int mid = nextMessageId();
+        client.sendRaw(frame(0x49, mid, 9));
+        simulation.runFor(500);
+        Message response = expect(Message.ACK, "4.00", mid);
+        check(response.getTokenLength() == 0, "4.00 with a token");
+
+        // a token longer than the message
+        mid = nextMessageId();
+        client.sendRaw(frame(0x44, mid, 2));
+        simulation.runFor(500);
+        response = expect(Message.ACK, "4.00", mid);
+        check(response.getTokenLength() == 0, "4.00 with a token");
+
+        // NON, ACK and RST are not answered, nor is a message shorter than the header or of another version
+        client.sendRaw(frame(0x59, nextMessageId(), 9));
+        client.sendRaw(frame(0x6f, nextMessageId(), 15));
+        client.sendRaw(frame(0x7f, nextMessageId(), 15));
+        client.sendRaw(new byte[] { 0x40, 0x01, 0x00 });
+        client.sendRaw(new byte[0]);
+        client.sendRaw(frame(0x80, nextMessageId(), 0));
+        simulation.runFor(500);
+        expectNothing();
+
+        mid = nextMessageId();
+        client.start(Message.CON, Message.GET, mid, new byte[] { 1 }, "status");
+        client.send();
+        simulation.runFor(500);
+        expect(Message.ACK, "2.05", mid);
+    }
+
+    // a GET with the first header byte, message id and tokenBytes bytes of token
+    private static byte[] frame(int first, int mid, int tokenBytes) {
+        byte[] frame = new byte[4 + tokenBytes];
+        frame[0] = (byte) first;
+        frame[1] = Message.GET;
+        frame[2] = (byte) (mid >> 8);
+        frame[3] = (byte) mid;
+        for (int i = 0; i < tokenBytes; i++)
+            frame[4 + i] = (byte) i;
+        return frame;
+    }
+}
@@ -0,0 +1,140 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.util.Arrays;
+
+import com.sap.coap.Message;
+
+/**
+ * Observing sensor/temp with a CON registration: the first notification is piggybacked in its ACK, also when
+ * the registration is retransmitted, the following ones come as NON and now and then as CON, which the client
+ * acknowledges, until the client deregisters. An observer joining later is sent the same notification, with the
+ * Max-Age reduced by the time since.
+ */
+public final class ObserveScenario extends Scenario {
+    private static final int OPTION_OBSERVE = 6;
+    private static final int OPTION_MAX_AGE = 14;
+    private static final byte[] TOKEN = { 0x0b, 0x5e };
+
+    public String getDescription() {
+        return "a CON observe registration is acknowledged with the first notification, the rest follow until deregistered";
+    }
+
+    protected void run() {
+        int mid = nextMessageId();
+        byte[] registration = register(0, mid);
+        simulation.runFor(1000);
+        CoapClient.Received first = client.poll();
+        check(first != null, "registration not answered");
+        Message ack = first.message;
+        check(ack.getType() == Message.ACK && ack.getMessageId() == mid && CoapClient.code(ack.getCode()).equals("2.05"),
+                "registration not answered by the first notification in its ACK: " + first);
+        check(option(ack, OPTION_OBSERVE) >= 0, "first notification without Observe");
+        checkToken(ack);
+
+        client.sendRaw(registration);
+        simulation.runFor(500);
+        CoapClient.Received replay = client.poll();
+        check(replay != null && Arrays.equals(replay.frame, first.frame), "retransmitted registration not answered the same: " + replay);
+
+        // readings every 8 s, a CON at least every 20 s
+        int observe = option(ack, OPTION_OBSERVE);
+        int notifications = 0;
+        int confirmable = 0;
+        for (int t = 0; t < 60; t++) {
+            simulation.runFor(1000);
+            for (CoapClient.Received received = client.poll(); received != null; received = client.poll()) {
+                Message notification = received.message;
+                check(CoapClient.code(notification.getCode()).equals("2.05"), "notification " + received);
+                checkToken(notification);
+                check(option(notification, OPTION_OBSERVE) > observe, "Observe not increasing: " + received);
+                observe = option(notification, OPTION_OBSERVE);
+                notifications++;
+                if (notification.getType() == Message.CON) {
+                    confirmable++;
+                    client.ack(notification);
+                } else {
+                    check(notification.getType() == Message.NON, "notification " + received);
+                }
+            }
+        }
+        check(notifications >= 5, notifications + " notifications in 60 s");
+        check(confirmable >= 2, confirmable + " confirmable notifications in 60 s");
+
+        // a notification sent later from the same encoding only claims the freshness left then
+        Message latest = null;
+        for (int t = 0; t < 10 && latest == null; t++) {
+            simulation.runFor(1000);
+            CoapClient.Received received = client.poll();
+            if (received != null)
+                latest = received.message;
+        }
+        check(latest != null, "no notification after a reading");
+        if (latest.getType() == Message.CON)
+            client.ack(latest);
+        simulation.runFor(3000);
+        CoapClient late = new CoapClient(simulation, radio, address(0x101), mote.getAddress(), SERVER_PORT);
+        late.start(Message.CON, Message.GET, nextMessageId(), TOKEN).addUintOption(OPTION_OBSERVE, 0);
+        late.addPath("sensor/temp");
+        late.send();
+        simulation.runFor(500);
+        CoapClient.Received lateFirst = late.poll();
+        check(lateFirst != null, "late registration not answered");
+        check(option(lateFirst.message, OPTION_OBSERVE) == option(latest, OPTION_OBSERVE), "late registration not answered from the same notification: " + lateFirst);
+        check(option(lateFirst.message, OPTION_MAX_AGE) <= option(latest, OPTION_MAX_AGE) - 2,
+                "Max-Age " + option(lateFirst.message, OPTION_MAX_AGE) + " 3 s after " + option(latest, OPTION_MAX_AGE));
+        client.clear();
+
+        // deregistration is answered like a plain GET
+        mid = nextMessageId();
+        register(1, mid);
+        simulation.runFor(1000);
+        Message response = expect(Message.ACK, "2.05", mid);
+        check(option(response, OPTION_OBSERVE) < 0, "deregistration answered with Observe");
+        simulation.runFor(30000);
+        expectNothing();
+    }
+
+    // observe 0 registers, 1 deregisters
+    private byte[] register(int observe, int mid) {
+        client.start(Message.CON, Message.GET, mid, TOKEN).addUintOption(OPTION_OBSERVE, observe);
+        client.addPath("sensor/temp");
+        return client.send();
+    }
+
+    private static void checkToken(Message message) {
+        check(message.getTokenLength() == TOKEN.length && message.token[message.tokenOffset] == TOKEN[0]
+                && message.token[message.tokenOffset + 1] == TOKEN[1], "wrong token: " + CoapClient.describe(message));
+    }
+}
@@ -0,0 +1,97 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import com.sap.coap.sim.ResourceDirectory;
+
+/**
+ * ResourceDirectoryClient against the ResourceDirectory stand-in: the registration, block-wise since the links
+ * are larger than a block, updates at 3/4 of the lifetime, a registration again once the directory lost it, and
+ * an endpoint name too long for the query, which start rejects.
+ */
+public final class ResourceDirectoryScenario extends Scenario {
+    private static final String CLIENT = "com.sap.coap.ResourceDirectoryClient";
+    private static final int RD_PORT = 5683;
+    private static final int LIFETIME = 60;
+
+    private ResourceDirectory directory;
+
+    public String getDescription() {
+        return "registration, updates and registration again at a resource directory, long endpoint names rejected";
+    }
+
+    protected void run() {
+        directory = new ResourceDirectory(radio, address(2), RD_PORT);
+
+        check(start("node-1", LIFETIME), "start rejected");
+        simulation.runFor(5000);
+        ResourceDirectory.Registration registration = directory.getRegistration("node-1");
+        check(registration != null, "not registered");
+        check(registration.lifetime == LIFETIME, "lifetime " + registration.lifetime);
+        for (String path : new String[] { "</status>", "</sensor/temp>", "</foobar>", "</config>" })
+            check(registration.links.contains(path), path + " not in " + registration.links);
+        check(directory.getRequests() > 1, "links not sent block-wise");
+        check(isRegistered(), "client not registered");
+
+        // updates without payload every 45 s
+        simulation.runFor(2 * LIFETIME * 750);
+        check(registration.updates == 2, registration.updates + " updates");
+
+        // the directory forgets the registration, the next update is answered 4.04 and registers again
+        directory.remove("node-1");
+        simulation.runFor(LIFETIME * 750);
+        ResourceDirectory.Registration again = directory.getRegistration("node-1");
+        check(again != null && !again.location.equals(registration.location), "not registered again");
+
+        // "ep=" + 35 + "lt=60" is 43 bytes, more than the 40 of the query
+        long requests = directory.getRequests();
+        check(!start("node-with-a-name-much-too-long-for-", LIFETIME), "long endpoint name accepted");
+        check(!start("", LIFETIME), "empty endpoint name accepted");
+        check(!start("node-1", 0), "lifetime 0 accepted");
+        simulation.runFor(5000);
+        check(directory.getRequests() == requests, "rejected start sent requests " + requests + " " + directory.getRequests() + " " + simulation.toMillis(simulation.now()));
+        check(isRegistered(), "rejected start changed the registration");
+    }
+
+    private boolean start(String endpoint, int lifetime) {
+        byte[] name = endpoint.getBytes();
+        Object started = mote.invokeStatic(CLIENT, "start",
+                new Class<?>[] { byte[].class, byte[].class, int.class, byte[].class, int.class, int.class },
+                mote.getAddress(), address(2), RD_PORT, name, name.length, lifetime);
+        return (Boolean) started;
+    }
+
+    private boolean isRegistered() {
+        return (Boolean) mote.invokeStatic(CLIENT, "isRegistered", new Class<?>[0]);
+    }
+}
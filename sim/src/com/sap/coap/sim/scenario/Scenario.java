@@ -0,0 +1,190 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.io.ByteArrayOutputStream;
+
+import com.sap.coap.Message;
+import com.sap.coap.sim.Radio;
+import com.sap.coap.sim.Simulation;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * A few packets exchanged with a mote running CoapSensorDemo and the checks of what comes back. Each run starts a
+ * new Simulation with one mote and one CoapClient, on a radio without loss and with a fixed delay, so a scenario
+ * is deterministic. A failed check throws ScenarioFailure.
+ */
+public abstract class Scenario {
+    protected static final String ASSEMBLY = "com.sap.coap.CoapSensorDemo";
+    protected static final int SERVER_PORT = 1024;
+    // one way delay of the radio
+    protected static final int DELAY = 5;
+
+    protected static final int OPTION_BLOCK2 = 23;
+    protected static final int OPTION_SIZE2 = 28;
+    protected static final int OPTION_BLOCK1 = 27;
+    protected static final int OPTION_SIZE1 = 60;
+
+    protected Simulation simulation;
+    protected Radio radio;
+    protected VirtualMote mote;
+    protected CoapClient client;
+
+    private int messageId = 0x1000;
+
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * One line on what the scenario covers.
+     */
+    public abstract String getDescription();
+
+    public final void execute(long seed) {
+        simulation = new Simulation(seed);
+        radio = new Radio(simulation);
+        radio.setDelay(DELAY, DELAY);
+        mote = new VirtualMote(simulation, radio, address(1));
+        configure(mote);
+        mote.boot(ASSEMBLY);
+        client = new CoapClient(simulation, radio, address(0x100), mote.getAddress(), SERVER_PORT);
+        run();
+    }
+
+    /**
+     * Changes the mote before it boots, e.g. its sensor.
+     */
+    protected void configure(VirtualMote mote) {
+    }
+
+    protected abstract void run();
+
+    protected int nextMessageId() {
+        return messageId++;
+    }
+
+    // fd00::<index>
+    protected static byte[] address(int index) {
+        byte[] address = new byte[16];
+        address[0] = (byte) 0xfd;
+        address[14] = (byte) (index >> 8);
+        address[15] = (byte) index;
+        return address;
+    }
+
+    protected static void check(boolean condition, String message) {
+        if (!condition)
+            throw new ScenarioFailure(message);
+    }
+
+    /**
+     * The next message received by the client, which has to be of type with code, e.g. "2.05".
+     */
+    protected Message expect(byte type, String code) {
+        CoapClient.Received received = client.poll();
+        check(received != null, "expected " + code + ", got nothing at " + simulation.toMillis(simulation.now()) + " ms");
+        Message message = received.message;
+        check(message.getType() == type && CoapClient.code(message.getCode()).equals(code),
+                "expected type " + type + " " + code + ", got " + received);
+        return message;
+    }
+
+    protected Message expect(byte type, String code, int messageId) {
+        Message message = expect(type, code);
+        check(message.getMessageId() == messageId, "expected message id " + messageId + ", got " + CoapClient.describe(message));
+        return message;
+    }
+
+    /**
+     * The response with code to the CON request messageId, piggybacked or separate: an empty ACK followed by a CON
+     * response, which is acknowledged.
+     */
+    protected Message expectResponse(int messageId, String code) {
+        CoapClient.Received received = client.poll();
+        check(received != null, "expected a response to " + messageId + ", got nothing");
+        Message ack = received.message;
+        check(ack.getType() == Message.ACK && ack.getMessageId() == messageId, "expected the ACK of " + messageId + ", got " + received);
+        if (ack.getCode() != Message.EMPTY) {
+            check(CoapClient.code(ack.getCode()).equals(code), "expected " + code + ", got " + received);
+            return ack;
+        }
+        Message response = expect(Message.CON, code);
+        client.ack(response);
+        return response;
+    }
+
+    protected void expectNothing() {
+        CoapClient.Received received = client.poll();
+        check(received == null, "expected nothing, got " + received);
+    }
+
+    /**
+     * GETs the representation of path block-wise, in blocks of 16 << szx bytes, and checks every block: the
+     * number asked for, the size, and the More flag, which only the last one lacks.
+     */
+    protected byte[] fetch(String path, int szx) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int num = 0;; num++) {
+            int mid = nextMessageId();
+            client.start(Message.CON, Message.GET, mid, new byte[] { (byte) num }, path).addUintOption(OPTION_BLOCK2, (num << 4) | szx);
+            client.send();
+            simulation.runFor(500);
+            Message block = expect(Message.ACK, "2.05", mid);
+            int value = option(block, OPTION_BLOCK2);
+            check(value >= 0 && value >> 4 == num && (value & 0x07) == szx, path + " block " + num + " with Block2 " + value);
+            boolean more = (value & 0x08) != 0;
+            check(more ? block.payloadLength == 16 << szx : block.payloadLength <= 16 << szx,
+                    path + " block " + num + " of " + block.payloadLength + " bytes");
+            body.write(block.payload == null ? new byte[0] : block.payload, block.payloadOffset, block.payloadLength);
+            if (!more)
+                return body.toByteArray();
+        }
+    }
+
+    protected static String payload(Message message) {
+        if (message.payloadLength == 0)
+            return "";
+        return new String(message.payload, message.payloadOffset, message.payloadLength);
+    }
+
+    /**
+     * Value of the unsigned integer option number of message, -1 if it has none.
+     */
+    protected static int option(Message message, int number) {
+        int index = message.getIndexOfOptionWithId(number, 0);
+        if (index < 0)
+            return -1;
+        return message.getUintValueOfOptionWithIndex(index);
+    }
+}
@@ -0,0 +1,94 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the scenarios given by name, or all of them, and exits with 1 if one of them failed. The seed of the
+ * simulations is taken from the system property seed (default 1).
+ */
+public final class Scenarios {
+    private Scenarios() {
+    }
+
+    static Scenario[] all() {
+        return new Scenario[] {
+            new StatusScenario(),
+            new SensorIdleScenario(),
+            new ResourceDirectoryScenario(),
+            new DedupScenario(),
+            new ObserveScenario(),
+            new SeparateResponseScenario(),
+            new CongestionScenario(),
+            new Block2Scenario(),
+            new Block1Scenario(),
+            new MalformedScenario(),
+            new SnapshotScenario(),
+        };
+    }
+
+    public static void main(String[] args) {
+        long seed = Long.getLong("seed", 1);
+        List<Scenario> selected = new ArrayList<Scenario>();
+        for (Scenario scenario : all()) {
+            if (args.length == 0)
+                selected.add(scenario);
+            for (String name : args)
+                if (name.equals(scenario.getName()))
+                    selected.add(scenario);
+        }
+        if (selected.size() < Math.max(args.length, 1)) {
+            System.err.println("unknown scenario, known are:");
+            for (Scenario scenario : all())
+                System.err.println("  " + scenario.getName() + ": " + scenario.getDescription());
+            System.exit(2);
+        }
+
+        int failures = 0;
+        for (Scenario scenario : selected) {
+            try {
+                scenario.execute(seed);
+                System.out.println("ok   " + scenario.getName());
+            } catch (RuntimeException e) {
+                failures++;
+                System.out.println("FAIL " + scenario.getName() + ": " + e);
+                if (!(e instanceof ScenarioFailure))
+                    e.printStackTrace(System.out);
+            }
+        }
+        System.out.println(selected.size() - failures + " of " + selected.size() + " scenarios passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
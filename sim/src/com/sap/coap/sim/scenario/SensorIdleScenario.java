@@ -0,0 +1,66 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import com.sap.coap.Message;
+
+/**
+ * GET sensor/temp again after the resource went idle and closed the sensor, which it opens again on demand.
+ */
+public final class SensorIdleScenario extends Scenario {
+    // long enough for the resource to count down and close the sensor
+    private static final int IDLE = 60000;
+
+    public String getDescription() {
+        return "sensor/temp is answered after the sensor was closed for being idle, twice";
+    }
+
+    protected void run() {
+        for (int i = 0; i < 3; i++) {
+            if (i > 0) {
+                simulation.runFor(IDLE - 20000);
+                long reads = mote.getSensor().getReads();
+                simulation.runFor(20000);
+                // read every 8 s while open
+                check(mote.getSensor().getReads() == reads, "sensor not closed while idle");
+            }
+            int mid = nextMessageId();
+            client.start(Message.CON, Message.GET, mid, new byte[] { (byte) i }, "sensor/temp");
+            client.send();
+            simulation.runFor(2000);
+            Message response = expectResponse(mid, "2.05");
+            check(payload(response).length() > 0, "no temperature");
+        }
+        expectNothing();
+    }
+}
@@ -0,0 +1,94 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.util.Arrays;
+
+import com.sap.coap.Message;
+import com.sap.coap.sim.VirtualMote;
+
+/**
+ * A deferred request that is not answered within the deadline, the sensor fails every read: a CON gets an empty
+ * ACK and later a separate CON response, retransmitted until the client acknowledges it, a NON gets a NON.
+ */
+public final class SeparateResponseScenario extends Scenario {
+    public String getDescription() {
+        return "a slow CON is acknowledged empty and answered by a CON retransmitted until acknowledged";
+    }
+
+    protected void configure(VirtualMote mote) {
+        mote.getSensor().setFailureProbability(1);
+    }
+
+    protected void run() {
+        int mid = nextMessageId();
+        client.start(Message.CON, Message.GET, mid, new byte[] { 4 }, "sensor/temp");
+        byte[] request = client.send();
+        simulation.runFor(1500);
+        CoapClient.Received empty = client.poll();
+        check(empty != null && empty.message.getType() == Message.ACK && empty.message.getCode() == Message.EMPTY
+                && empty.message.getMessageId() == mid, "expected an empty ACK, got " + empty);
+        // before the client retransmits, ACK_TIMEOUT is 2 s at least
+        check(empty.millis < 2000, "empty ACK after " + empty.millis + " ms");
+
+        // a retransmission gets the empty ACK again
+        client.sendRaw(request);
+        simulation.runFor(500);
+        CoapClient.Received replay = client.poll();
+        check(replay != null && Arrays.equals(replay.frame, empty.frame), "retransmitted request not answered the same: " + replay);
+
+        // 5.03 after three rounds without a reading, resent while not acknowledged
+        simulation.runFor(15000);
+        CoapClient.Received response = client.poll();
+        check(response != null, "no separate response");
+        check(response.message.getType() == Message.CON && CoapClient.code(response.message.getCode()).equals("5.03"),
+                "expected a CON 5.03, got " + response);
+        check(response.message.getTokenLength() == 1 && response.message.token[response.message.tokenOffset] == 4, "token not echoed");
+        check(response.message.getMessageId() != mid, "separate response with the message id of the request");
+        CoapClient.Received retransmission = client.poll();
+        check(retransmission != null && Arrays.equals(retransmission.frame, response.frame), "separate response not retransmitted: " + retransmission);
+        check(retransmission.millis - response.millis >= 2000, "retransmitted after " + (retransmission.millis - response.millis) + " ms");
+        client.ack(retransmission.message);
+        // retransmissions received before the ACK was sent
+        client.clear();
+        simulation.runFor(60000);
+        expectNothing();
+
+        // a NON gets no ACK, only the NON response
+        client.start(Message.NON, Message.GET, nextMessageId(), new byte[] { 5 }, "sensor/temp");
+        client.send();
+        simulation.runFor(15000);
+        expect(Message.NON, "5.03");
+        expectNothing();
+    }
+}
@@ -0,0 +1,148 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap.sim.scenario;
+
+import java.io.ByteArrayOutputStream;
+
+import com.sap.coap.Message;
+
+/**
+ * Two clients reading metrics and trace block-wise at the same time. Each block 0 takes a new snapshot with a
+ * new ETag, a client asking for a later block of an older snapshot gets block 0 of the current one instead of a
+ * block cut from another snapshot. Trace records overwritten while a snapshot is read come as LOST markers. The
+ * same holds for /.well-known/core when a resource is registered during a transfer.
+ */
+public final class SnapshotScenario extends Scenario {
+    private static final int OPTION_ETAG = 4;
+    private static final int RECORD_SIZE = 16;
+
+    private CoapClient other;
+
+    public String getDescription() {
+        return "block-wise transfers of superseded snapshots restart at block 0, overwritten trace records are marked lost";
+    }
+
+    protected void run() {
+        other = new CoapClient(simulation, radio, address(0x101), mote.getAddress(), SERVER_PORT);
+
+        // blocks of 16 bytes, the metrics take several
+        Message first = get(client, "metrics", 0, 0);
+        int etag = option(first, OPTION_ETAG);
+        check(etag >= 0, "block 0 without ETag");
+        check((option(first, OPTION_BLOCK2) & 0x08) != 0, "metrics fit into one block of 16 bytes");
+
+        // the same snapshot as long as nobody takes another
+        Message second = get(client, "metrics", 1, 0);
+        check(option(second, OPTION_BLOCK2) >> 4 == 1 && option(second, OPTION_ETAG) == etag, "block 1 of another snapshot");
+
+        // the other client takes a new snapshot, the next block of the first one restarts its transfer
+        Message otherFirst = get(other, "metrics", 0, 0);
+        int otherEtag = option(otherFirst, OPTION_ETAG);
+        check(otherEtag != etag, "new snapshot with the same ETag");
+        Message restarted = get(client, "metrics", 2, 0);
+        check(option(restarted, OPTION_BLOCK2) >> 4 == 0 && option(restarted, OPTION_ETAG) == otherEtag,
+                "stale transfer not restarted at block 0 of the current snapshot: Block2 " + option(restarted, OPTION_BLOCK2));
+
+        // both read the current snapshot to its end
+        check(new String(rest(client, "metrics", restarted)).equals(new String(rest(other, "metrics", otherFirst))), "different snapshots");
+
+        // trace in blocks of 64 bytes, four records; the other client's traffic overwrites the first records of
+        // the snapshot, two records per exchange
+        first = get(client, "trace", 0, 2);
+        check((option(first, OPTION_BLOCK2) & 0x08) != 0, "trace in one block");
+        for (int i = 0; i < 20; i++) {
+            other.start(Message.NON, Message.GET, nextMessageId(), null, "status");
+            other.send();
+            simulation.runFor(100);
+        }
+        other.clear();
+        second = get(client, "trace", 1, 2);
+        check(option(second, OPTION_ETAG) == option(first, OPTION_ETAG), "trace block 1 of another snapshot");
+        int lost = 0;
+        for (int offset = 0; offset < second.payloadLength; offset += RECORD_SIZE) {
+            boolean marker = second.payload[second.payloadOffset + offset] == 0;
+            boolean zero = true;
+            for (int i = 1; i < RECORD_SIZE; i++) {
+                byte b = second.payload[second.payloadOffset + offset + i];
+                marker &= b == (byte) 0xFF;
+                zero &= b == 0;
+            }
+            check(!zero, "an all zero record");
+            if (marker)
+                lost++;
+            else
+                check(second.payload[second.payloadOffset + offset] != 0, "record with event 0 that is no LOST marker");
+        }
+        check(lost == 4, lost + " of the 4 overwritten records marked lost");
+
+        otherFirst = get(other, "trace", 0, 2);
+        restarted = get(client, "trace", 2, 2);
+        check(option(restarted, OPTION_BLOCK2) >> 4 == 0 && option(restarted, OPTION_ETAG) == option(otherFirst, OPTION_ETAG),
+                "stale trace transfer not restarted: Block2 " + option(restarted, OPTION_BLOCK2));
+
+        // a link registered while /.well-known/core is read restarts the transfer with the longer document
+        first = get(client, ".well-known/core", 0, 0);
+        byte[] path = "late".getBytes();
+        mote.invokeStatic("com.sap.coap.Core", "registerResource", new Class<?>[] { byte[].class, int.class, byte[].class },
+                path, path.length, null);
+        restarted = get(client, ".well-known/core", 1, 0);
+        check(option(restarted, OPTION_BLOCK2) >> 4 == 0 && option(restarted, OPTION_ETAG) != option(first, OPTION_ETAG)
+                && option(restarted, OPTION_SIZE2) == option(first, OPTION_SIZE2) + 8,
+                "core transfer not restarted after a registration: Block2 " + option(restarted, OPTION_BLOCK2));
+        check(new String(rest(client, ".well-known/core", restarted)).endsWith(",</late>"), "new link missing");
+    }
+
+    private Message get(CoapClient from, String path, int num, int szx) {
+        int mid = nextMessageId();
+        from.start(Message.CON, Message.GET, mid, null, path).addUintOption(OPTION_BLOCK2, (num << 4) | szx);
+        from.send();
+        simulation.runFor(500);
+        CoapClient.Received received = from.poll();
+        check(received != null && received.message.getMessageId() == mid && CoapClient.code(received.message.getCode()).equals("2.05"),
+                "block " + num + " of " + path + " answered " + received);
+        return received.message;
+    }
+
+    // the body from block 0 on, checking that every block has the ETag of block 0
+    private byte[] rest(CoapClient from, String path, Message first) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Message block = first;
+        for (int num = 1;; num++) {
+            check(option(block, OPTION_ETAG) == option(first, OPTION_ETAG), "ETag changed within a transfer");
+            body.write(block.payload, block.payloadOffset, block.payloadLength);
+            if ((option(block, OPTION_BLOCK2) & 0x08) == 0)
+                return body.toByteArray();
+            block = get(from, path, num, option(first, OPTION_BLOCK2) & 0x07);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * A representation held in an array, e.g. a constant text in flash. Blocks are referenced, not copied.
+ */
+public final class ArraySource extends BlockSource {
+    private byte[] array;
+    private int offset;
+    private int length;
+
+    public ArraySource(byte[] inArray, int inOffset, int inLength) {
+        array = inArray;
+        offset = inOffset;
+        length = inLength;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Changes the length of the representation, e.g. after a new snapshot has been encoded into the array.
+     */
+    public void setLength(int inLength) {
+        length = inLength;
+    }
+
+    /**
+     * Moves the representation within the array, e.g. to the slot a PersistentSink has made current.
+     */
+    public void setRange(int inOffset, int inLength) {
+        offset = inOffset;
+        length = inLength;
+    }
+
+    public void read(int inOffset, byte[] buffer, int bufferOffset, int inLength) {
+        Util.copyData(array, offset + inOffset, buffer, bufferOffset, inLength);
+    }
+
+    public byte[] getArray() {
+        return array;
+    }
+
+    public int getArrayOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,179 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.BlockSink;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+
+/**
+ * Reassembly of a PUT or POST body uploaded block-wise, draft-ietf-core-block-14 ("block1 option"), into a
+ * BlockSink. Each block is written to the sink straight from the received message, so no buffer is needed
+ * whatever the size of the body. A resource keeps one Block1 per sink and passes its requests to receive.
+ *
+ * Blocks of a transfer have to arrive in order, a transfer is started again by block 0. The block size is
+ * reduced to what fits into one link frame, see Block2.setLinkMtu, by the answer to block 0. A request without
+ * Block1 option is taken as a body of one block.
+ *
+ * The progress of each transfer is kept in a table shared by all Block1, see BlockTransfers, so uploads of
+ * several clients to several resources can be interleaved. As a sink holds one body, a transfer started to the
+ * same sink by another client supersedes the one in progress, which is then answered 4.08 and has to start over.
+ */
+public final class Block1 {
+    @Immutable public static final int OPTION_BLOCK1 = 27;
+    @Immutable public static final int OPTION_SIZE1 = 60;
+
+    // results of receive
+    @Immutable public static final byte CONTINUE = 0; // the answer is 2.31 (Continue) with the Block1 option, set
+    @Immutable public static final byte COMPLETE = 1; // the last block was written, the resource sets the code
+    @Immutable public static final byte FAILED = 2;   // the error code is set
+
+    // Transfers in progress of all Block1
+    @Immutable private static byte MAX_TRANSFERS = 4;
+    private static BlockTransfers transfers = new BlockTransfers(MAX_TRANSFERS);
+
+    private BlockSink sink;
+
+    // counts the bodies started in the sink, the entity tag of a transfer tells whether it is still the current one
+    private int generation = 0;
+    // length of the last complete body
+    private int length = 0;
+
+    public Block1(BlockSink inSink) {
+        sink = inSink;
+    }
+
+    /**
+     * Total length of the body of the last COMPLETE transfer.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the block of request to the sink and answers it. Returns CONTINUE, COMPLETE or FAILED. For
+     * COMPLETE the Block1 option has been added, so the resource may only add options with higher numbers
+     * (Size1) before responding. Must be called from a request callback of a Resource, see
+     * CoapServer.getRequestAddress.
+     */
+    public byte receive(Message request, MessageWriter response) {
+        byte[] addr = CoapServer.getRequestAddress();
+        int port = CoapServer.getRequestPort();
+        int index = request.getIndexOfOptionWithId(OPTION_BLOCK1, 0);
+        int payloadLength = request.payloadLength;
+
+        if (index < 0) {
+            generation++;
+            int entry = transfers.find(addr, port, this);
+            if (entry != BlockTransfers.NONE)
+                transfers.remove(entry);
+            if (!sink.begin(payloadLength) || !sink.write(0, request.payload, request.payloadOffset, payloadLength))
+                return tooLarge(response);
+            length = payloadLength;
+            sink.end(length);
+            return COMPLETE;
+        }
+
+        if (request.getValueSizeOfOptionWithIndex(index) > 3)
+            return fail(response, (byte) 0);
+        int value = request.getUintValueOfOptionWithIndex(index);
+        int szx = value & 0x07;
+        int num = value >>> 4;
+        boolean more = (value & 0x08) != 0;
+        int offset = num << (szx + 4);
+
+        // all but the last block have exactly the block size
+        if (szx == 7 || (more && payloadLength != (16 << szx)))
+            return fail(response, (byte) 0);
+
+        int entry;
+        if (offset == 0) {
+            int size = -1;
+            int sizeIndex = request.getIndexOfOptionWithId(OPTION_SIZE1, 0);
+            if (sizeIndex >= 0)
+                size = request.getUintValueOfOptionWithIndex(sizeIndex);
+            generation++;
+            entry = transfers.add(addr, port, this, generation);
+            if (!sink.begin(size)) {
+                transfers.remove(entry);
+                return tooLarge(response);
+            }
+        } else {
+            entry = transfers.find(addr, port, this);
+            // a block is missing, the transfer has not been started or has been superseded: 4.08 (Request Entity Incomplete)
+            if (entry == BlockTransfers.NONE)
+                return fail(response, (byte) 8);
+            if (transfers.getEtag(entry) != generation
+                    || (offset != transfers.getNextOffset(entry) && offset != transfers.getLastOffset(entry))) {
+                transfers.remove(entry);
+                return fail(response, (byte) 8);
+            }
+        }
+
+        if (!sink.write(offset, request.payload, request.payloadOffset, payloadLength)) {
+            transfers.remove(entry);
+            return tooLarge(response);
+        }
+
+        if (more) {
+            transfers.setProgress(entry, offset, offset + payloadLength);
+            // a smaller block size is asked for with the answer to block 0, the client continues at the same offset
+            int maxSzx = Block2.getMaxSzx();
+            if (num == 0 && szx > maxSzx)
+                szx = maxSzx;
+            response.setCode(Message.createResponseCode((byte) 2, (byte) 31));
+            response.addUintOption(OPTION_BLOCK1, (num << 4) | 0x08 | szx);
+            return CONTINUE;
+        }
+
+        transfers.remove(entry);
+        length = offset + payloadLength;
+        sink.end(length);
+        response.addUintOption(OPTION_BLOCK1, (num << 4) | szx);
+        return COMPLETE;
+    }
+
+    // 4.13 (Request Entity Too Large) tells the largest body in Size1, draft-ietf-core-block-14, 2.9.3
+    private byte tooLarge(MessageWriter response) {
+        response.setCode(Message.createResponseCode((byte) 4, (byte) 13));
+        response.addUintOption(OPTION_SIZE1, sink.getCapacity());
+        return FAILED;
+    }
+
+    private static byte fail(MessageWriter response, byte detail) {
+        response.setCode(Message.createResponseCode((byte) 4, detail));
+        return FAILED;
+    }
+}
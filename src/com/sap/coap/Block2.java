@@ -0,0 +1,240 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.BlockTransfers;
+import com.sap.coap.CoapServer;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Resource;
+
+/**
+ * Block-wise transfer of responses, draft-ietf-core-block-14 ("block2 option"), for any resource: a resource
+ * answers a GET by passing its representation as a BlockSource to respond.
+ *
+ * The block size is the smaller one of what the client asked for (late negotiation, 2.4) and what fits into one
+ * link frame, see setLinkMtu. A representation larger than one block is split on the server's initiative even
+ * if the client did not ask for blocks. Block numbers of up to 20 bits are supported.
+ *
+ * A representation that changes while clients read it, e.g. a snapshot taken for block 0, is served with an
+ * ETag, see respond with etag, so that blocks of different versions are never put together silently, 2.4.
+ */
+public final class Block2 {
+    @Immutable public static final int OPTION_ETAG = 4;
+    @Immutable public static final int OPTION_CONTENT_FORMAT = 12;
+    @Immutable public static final int OPTION_BLOCK2 = 23;
+    @Immutable public static final int OPTION_SIZE2 = 28;
+
+    @Immutable private static final int MAX_NUM = 0xFFFFF;
+    @Immutable private static final byte MAX_SZX = 6;
+
+    // Room left in a message for header, token and options besides the block
+    @Immutable private static final byte MESSAGE_OVERHEAD = 24;
+
+    // Largest block size exponent the link carries in one frame, 2 (64 bytes) fits a 127 byte 802.15.4 frame
+    private static byte maxSzx = 2;
+
+    // Blocks of sources without an array are read into this buffer, it is referenced by the response until
+    // that is encoded
+    private static byte[] blockBuffer = new byte[16 << 2];
+
+    // Transfers of changing representations in progress, with the ETag they started with
+    @Immutable private static byte MAX_TRANSFERS = 4;
+    private static BlockTransfers transfers = new BlockTransfers(MAX_TRANSFERS);
+
+    /**
+     * Sets the size of the largest CoAP message the link carries without fragmentation, the block size is the
+     * largest power of two that leaves MESSAGE_OVERHEAD bytes for the rest of the message.
+     */
+    public static void setLinkMtu(int messageSize) {
+        byte szx = 0;
+        while (szx < MAX_SZX && (32 << szx) + MESSAGE_OVERHEAD <= messageSize)
+            szx++;
+        maxSzx = szx;
+        if (blockBuffer.length < (16 << szx))
+            blockBuffer = new byte[16 << szx];
+    }
+
+    public static int getMaxBlockSize() {
+        return 16 << maxSzx;
+    }
+
+    /**
+     * Block size exponent (SZX) of getMaxBlockSize, also used for uploads, see Block1.
+     */
+    public static byte getMaxSzx() {
+        return maxSzx;
+    }
+
+    /**
+     * Answers request with the block of source it asks for, or with the first block if it asks for none and
+     * source does not fit into one. Options with numbers above 28 (Size2) cannot be added afterwards. Returns
+     * Resource.RESPOND, the response code is set to 4.00 for an invalid Block2 option and to 4.02 for a block
+     * beyond the end.
+     */
+    public static byte respond(Message request, MessageWriter response, BlockSource source) {
+        int length = source.getLength();
+        int szx = maxSzx;
+        int num = 0;
+
+        int index = request.getIndexOfOptionWithId(OPTION_BLOCK2, 0);
+        if (index >= 0) {
+            if (!isValid(request, index)) {
+                response.setCode(Message.createResponseCode((byte) 4, (byte) 0));
+                return Resource.RESPOND;
+            }
+            int value = request.getUintValueOfOptionWithIndex(index);
+            int requestedSzx = value & 0x07;
+            num = value >>> 4;
+            // a smaller block size than asked for: the same offset in smaller blocks, 2.4
+            if (requestedSzx < szx)
+                szx = requestedSzx;
+            else
+                num <<= requestedSzx - szx;
+        } else if (length <= (16 << szx)) {
+            response.setPayload(getBlock(source, 0, length), blockOffset(source, 0), length);
+            return Resource.RESPOND;
+        }
+
+        return respondBlock(response, source, num, szx);
+    }
+
+    /**
+     * Answers request like respond, for a representation that changes while it is read block-wise: every block
+     * carries etag, which has to change with the representation, and contentFormat. The transfer of a client
+     * is kept with the etag of its first block; a later block of a transfer that started with another etag, or
+     * of a request carrying another ETag, is answered with block 0 of the current representation instead, which
+     * restarts the transfer. The response must not have options yet, options with numbers above 28 (Size2)
+     * cannot be added afterwards. Returns Resource.RESPOND.
+     */
+    public static byte respond(Message request, MessageWriter response, BlockSource source, int etag, int contentFormat) {
+        response.addUintOption(OPTION_ETAG, etag);
+        response.addUintOption(OPTION_CONTENT_FORMAT, contentFormat);
+
+        int index = request.getIndexOfOptionWithId(OPTION_BLOCK2, 0);
+        if (index >= 0 && !isValid(request, index))
+            return respond(request, response, source);
+
+        byte[] addr = CoapServer.getRequestAddress();
+        int port = CoapServer.getRequestPort();
+        int szx = maxSzx;
+        if (index >= 0 && (request.getUintValueOfOptionWithIndex(index) & 0x07) < szx)
+            szx = request.getUintValueOfOptionWithIndex(index) & 0x07;
+
+        if (isFirstBlock(request)) {
+            // only a representation larger than a block is transferred block-wise
+            if (source.getLength() > (16 << szx)) {
+                transfers.add(addr, port, source, etag);
+            } else {
+                int entry = transfers.find(addr, port, source);
+                if (entry != BlockTransfers.NONE)
+                    transfers.remove(entry);
+            }
+            return respond(request, response, source);
+        }
+
+        int entry = transfers.find(addr, port, source);
+        if ((entry != BlockTransfers.NONE && transfers.getEtag(entry) != etag) || hasOtherEtag(request, etag)) {
+            transfers.add(addr, port, source, etag);
+            return respondBlock(response, source, 0, szx);
+        }
+        return respond(request, response, source);
+    }
+
+    /**
+     * Whether request asks for the first block of a representation, i.e. for block 0 or for no block at all,
+     * e.g. the moment to take a new snapshot.
+     */
+    public static boolean isFirstBlock(Message request) {
+        int index = request.getIndexOfOptionWithId(OPTION_BLOCK2, 0);
+        return index < 0 || (request.getUintValueOfOptionWithIndex(index) >>> 4) == 0;
+    }
+
+    // Block num of size 16 << szx
+    private static byte respondBlock(MessageWriter response, BlockSource source, int num, int szx) {
+        int length = source.getLength();
+        int blockSize = 16 << szx;
+        int offset = num << (szx + 4);
+        if (num > MAX_NUM || (offset >= length && !(offset == 0 && length == 0))) {
+            response.setCode(Message.createResponseCode((byte) 4, (byte) 2));
+            return Resource.RESPOND;
+        }
+
+        int size = length - offset;
+        int more = 0;
+        if (size > blockSize) {
+            size = blockSize;
+            more = 0x08;
+        }
+
+        response.addUintOption(OPTION_BLOCK2, (num << 4) | more | szx);
+        // the total size with the first block lets the client judge the transfer, draft-ietf-core-block-14, 2.5
+        if (num == 0)
+            response.addUintOption(OPTION_SIZE2, length);
+        response.setPayload(getBlock(source, offset, size), blockOffset(source, offset), size);
+        return Resource.RESPOND;
+    }
+
+    private static boolean isValid(Message request, int index) {
+        return request.getValueSizeOfOptionWithIndex(index) <= 3 && (request.getUintValueOfOptionWithIndex(index) & 0x07) != 7;
+    }
+
+    // Whether request carries ETag options and none of them is etag
+    private static boolean hasOtherEtag(Message request, int etag) {
+        int length = MessageWriter.uintLength(etag);
+        for (int i = 0; ; i++) {
+            int index = request.getIndexOfOptionWithId(OPTION_ETAG, i);
+            if (index < 0)
+                return i > 0;
+            if (request.getValueSizeOfOptionWithIndex(index) == length && request.getUintValueOfOptionWithIndex(index) == etag)
+                return false;
+        }
+    }
+
+    private static byte[] getBlock(BlockSource source, int offset, int size) {
+        byte[] array = source.getArray();
+        if (array != null)
+            return array;
+        if (size > 0)
+            source.read(offset, blockBuffer, 0, size);
+        return blockBuffer;
+    }
+
+    private static int blockOffset(BlockSource source, int offset) {
+        if (source.getArray() != null)
+            return source.getArrayOffset() + offset;
+        return 0;
+    }
+}
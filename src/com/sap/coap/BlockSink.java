@@ -0,0 +1,64 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+/**
+ * Receives a request body uploaded block-wise by Block1, written block by block so that it never has to be in
+ * RAM as a whole, e.g. into persistent memory.
+ */
+public abstract class BlockSink {
+
+    /**
+     * Largest body the sink takes, in bytes.
+     */
+    public abstract int getCapacity();
+
+    /**
+     * Starts a new body, any body started before is dropped. size is the announced total size (Size1), or -1 if
+     * unknown. Returns false if the body is not accepted.
+     */
+    public abstract boolean begin(int size);
+
+    /**
+     * Writes length bytes of the body from buffer at bufferOffset, to be stored at offset. offset is the end of
+     * what has been written before, or the start of the last write if a block is repeated. length is 0 for an
+     * empty body or last block, buffer may then be null. Returns false if the body does not fit.
+     */
+    public abstract boolean write(int offset, byte[] buffer, int bufferOffset, int length);
+
+    /**
+     * Called when the last block of a body of length bytes has been written.
+     */
+    public void end(int length) {
+    }
+}
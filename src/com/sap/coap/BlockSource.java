@@ -0,0 +1,64 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+/**
+ * A representation served block-wise by Block2, read block by block so that it never has to be in RAM as a
+ * whole. Subclasses either generate the requested range on demand, or return the array that holds the whole
+ * representation from getArray, e.g. an @Immutable array that stays in flash.
+ */
+public abstract class BlockSource {
+
+    /**
+     * Total length of the representation in bytes.
+     */
+    public abstract int getLength();
+
+    /**
+     * Copies length bytes of the representation, starting at offset, to buffer at bufferOffset. Offset and
+     * length are always within getLength().
+     */
+    public abstract void read(int offset, byte[] buffer, int bufferOffset, int length);
+
+    /**
+     * The array holding the whole representation from getArrayOffset on, or null if it has to be read. Blocks
+     * of an array are referenced by the response instead of copied.
+     */
+    public byte[] getArray() {
+        return null;
+    }
+
+    public int getArrayOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,152 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * State of block-wise transfers in progress, keyed by the endpoint (address and port) of the client and the
+ * object the transfer belongs to, e.g. a Block1. Tokens are not part of the key, a client may change the token
+ * between the blocks of one transfer, draft-ietf-core-block-14, 2.4. Each transfer keeps an entity tag of the
+ * body it transfers, so it can tell when the body has been replaced in the meantime, and its progress.
+ *
+ * Any number of transfers from different clients can be interleaved as long as the table holds them, when it is
+ * full the least recently used transfer is dropped. All storage is allocated by the constructor.
+ */
+public final class BlockTransfers {
+    @Immutable public static final byte ADDRESS_SIZE = 16;
+
+    @Immutable public static final byte NONE = -1;
+
+    private int numEntries;
+
+    private byte[] addresses;
+    private int[] ports;
+    private Object[] owners;
+    private int[] etags;
+    private int[] nextOffsets;
+    private int[] lastOffsets;
+    private long[] lastUsedTicks; // 0 for a free entry
+
+    public BlockTransfers(int entries) {
+        numEntries = entries;
+
+        addresses = new byte[entries * ADDRESS_SIZE];
+        ports = new int[entries];
+        owners = new Object[entries];
+        etags = new int[entries];
+        nextOffsets = new int[entries];
+        lastOffsets = new int[entries];
+        lastUsedTicks = new long[entries];
+    }
+
+    /**
+     * Returns the entry of the transfer of the client to owner, or NONE. The entry becomes the most recently
+     * used one.
+     */
+    public int find(byte[] addr, int port, Object owner) {
+        for (int i = 0; i < numEntries; i++) {
+            if (lastUsedTicks[i] != 0 && owners[i] == owner && ports[i] == port
+                    && Util.compareData(addresses, i * ADDRESS_SIZE, addr, 0, ADDRESS_SIZE) == 0xFFFF) {
+                touch(i);
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Starts a transfer of the client to owner with the given entity tag, replacing a transfer of the same
+     * client to owner, a free entry or the least recently used one.
+     */
+    public int add(byte[] addr, int port, Object owner, int etag) {
+        int entry = find(addr, port, owner);
+        if (entry == NONE) {
+            entry = 0;
+            for (int i = 0; i < numEntries; i++) {
+                if (lastUsedTicks[i] == 0) {
+                    entry = i;
+                    break;
+                }
+                if (lastUsedTicks[i] - lastUsedTicks[entry] < 0)
+                    entry = i;
+            }
+            Util.copyData(addr, 0, addresses, entry * ADDRESS_SIZE, ADDRESS_SIZE);
+            ports[entry] = port;
+            owners[entry] = owner;
+        }
+
+        etags[entry] = etag;
+        nextOffsets[entry] = 0;
+        lastOffsets[entry] = 0;
+        touch(entry);
+        return entry;
+    }
+
+    public void remove(int entry) {
+        lastUsedTicks[entry] = 0;
+        owners[entry] = null;
+    }
+
+    public int getEtag(int entry) {
+        return etags[entry];
+    }
+
+    /**
+     * Offset the next block is expected at.
+     */
+    public int getNextOffset(int entry) {
+        return nextOffsets[entry];
+    }
+
+    /**
+     * Offset of the last block, it may be repeated if its answer got lost.
+     */
+    public int getLastOffset(int entry) {
+        return lastOffsets[entry];
+    }
+
+    /**
+     * Records a block from offset up to nextOffset.
+     */
+    public void setProgress(int entry, int offset, int nextOffset) {
+        lastOffsets[entry] = offset;
+        nextOffsets[entry] = nextOffset;
+    }
+
+    private void touch(int entry) {
+        lastUsedTicks[entry] = Time.currentTicks();
+        if (lastUsedTicks[entry] == 0)
+            lastUsedTicks[entry] = 1;
+    }
+}
@@ -0,0 +1,1192 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.iris.*;
+import com.ibm.saguaro.mrv6.*;
+
+//##if LOGGING
+import com.ibm.saguaro.logger.*;
+//##endif
+
+import com.sap.coap.DedupCache;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Metrics;
+import com.sap.coap.MetricsResource;
+import com.sap.coap.Request;
+import com.sap.coap.ObserveRequest;
+import com.sap.coap.ObserverRegistry;
+import com.sap.coap.RequestPool;
+import com.sap.coap.Resource;
+import com.sap.coap.TimerWheel;
+import com.sap.coap.Trace;
+import com.sap.coap.TraceResource;
+import com.sap.coap.UriRouter;
+
+/**
+ * The CoAP server of the mote. It owns the socket, the queues of deferred requests and observers and the timers
+ * driving them, the application only registers its resources, see Resource. All state is static, there is only
+ * one server per mote, and it has to be set up with init before anything else is called.
+ *
+ * Deferred requests and notifications are sent from periodicPacketProcessing, at most
+ * MAX_SENDING_OPERATIONS_PER_ROUND packets per round for all resources together. A round is scheduled by the
+ * work itself: a queued request, a new observer or a changed resource trigger one within SEND_DELAY. The timer
+ * stays armed only while deferred requests are waiting or a resource asks for further rounds, otherwise the
+ * server is idle until the next packet or reading.
+ */
+public class CoapServer extends UDPSocket {
+
+    // Singleton instance
+    private static CoapServer socket = new CoapServer();
+    private static int localPort;
+
+    //Timer to process pending packets, armed only while there is work
+    private static Timer timerPeriodicProcessing;
+    private static boolean processingScheduled = false;
+    private static long scheduledProcessingTime;
+
+    //Delay of the round triggered by new work, short to batch packets arriving together
+    @Immutable private static int SEND_DELAY = 10;
+
+    //Period of the rounds while deferred requests are waiting or a resource asks for them, See Observe-draft p.14.
+    private static int timerDelayPeriodicProcessing = 3000;
+
+    // Requests whose resource deferred the response
+    private static byte maxPendingRequests;
+    // A deferred CON request not answered within this time is acknowledged with an empty ACK and gets a separate
+    // response, draft-ietf-core-coap-18, 5.2.2. It has to stay well below CongestionControl.ACK_TIMEOUT to spare
+    // the client a retransmission.
+    private static int separateResponseDeadline = 1000;
+    private static byte numPendingRequests = 0;
+    private static Request[] pendingRequests;
+
+    // Observers of all observable resources
+    private static ObserverRegistry observers;
+    private static int lastServedObserver;
+
+    // Registered resources, by Uri-Path in the router and as a list for the periodic processing
+    @Immutable private static byte ROUTER_MAX_NODES = 16;
+    @Immutable private static byte ROUTER_MAX_LABEL_BYTES = 64;
+    @Immutable private static byte[] WELL_KNOWN_CORE = csr.s2b(".well-known/core");
+    @Immutable private static byte[] METRICS = csr.s2b("metrics");
+    @Immutable private static byte[] TRACE = csr.s2b("trace");
+    private static UriRouter router;
+    private static Resource[] resources;
+    private static byte numResources = 0;
+
+    // MessageID Header -CoAP-
+    private static short msgID = (short) Util.rand8();
+    private static int observeIDs = 0;
+
+    // The options (observe first) and payload of the latest notification, encoded once for all observers of its
+    // resource, who only get their own header and token in front. It is rebuilt when a notification for another
+    // resource or another version of the resource is due.
+    @Immutable private static byte MAX_NOTIFICATION_BODY_SIZE = 96;
+    private static byte[] notificationBody = new byte[4 + MAX_NOTIFICATION_BODY_SIZE];
+    private static int notificationBodyLength;
+    private static byte notificationCode;
+    private static Resource notificationResource;
+    private static int notificationVersion;
+    private static boolean notificationAvailable;
+    // The Max-Age of the body, if any, is the freshness left when it was encoded. Its value is rewritten in every
+    // copy sent, with the same length, to the freshness left then, see writeMaxAge.
+    private static int notificationMaxAgeOffset;
+    private static int notificationMaxAgeLength;
+    private static long notificationExpiry;
+
+    // Sending operations per round
+    @Immutable private static short MAX_SENDING_OPERATIONS_PER_ROUND = 4;
+
+    //maximum number of retransmissions of a CON in case no ACK was received
+    @Immutable private static int MAX_RETRANSMIT = 4;
+
+    // NSTART and the retransmission timeouts of all CONs sent, by the peers they are sent to
+    @Immutable private static byte CONGESTION_PEERS = 4;
+    private static CongestionControl congestion;
+
+    //gives the interval in seconds how often a CON instead of a NON should be used to ensure the observer still listens
+    @Immutable private static int CHECKRATE_FOR_OBSERVER_TIMEOUT = 20000;
+
+    // Bounds of the time between two notifications to the same observer, in ticks. Changes within the minimum are
+    // coalesced into one notification of the latest value, after the maximum the current value is sent again
+    // even if unchanged. 0 disables either bound.
+    private static long notifyMinSpan = 0;
+    private static long notifyMaxSpan = 0;
+
+    // All timers of observers and deferred requests are entries of one timer wheel, driven by timerWheelTimer.
+    // An observer has three entries (check with a CON, resend the CON, notification interval) by its slot, a
+    // deferred request one (its deadline) by its queue position after those.
+    @Immutable private static byte TIMER_WHEEL_BUCKETS = 64;
+    @Immutable private static byte TIMER_WHEEL_TICK = 100;
+    private static TimerWheel timerWheel;
+    private static Timer timerWheelTimer;
+    private static boolean timerWheelArmed = false;
+    private static long timerWheelTime;
+    private static int firstRequestTimer;
+
+    // Recently received requests and their replies, to answer retransmissions without handling them again.
+    // Entries are kept as long as a client may retransmit, ACK_TIMEOUT * ACK_RANDOM_FACTOR * (2^MAX_RETRANSMIT - 1)
+    // with the defaults of draft-ietf-core-coap-18, 4.8.
+    @Immutable private static byte DEDUP_CACHE_SIZE = 4;
+    @Immutable private static byte DEDUP_MAX_RESPONSE_SIZE = 64;
+    @Immutable private static int DEDUP_LIFETIME = 60000;
+    private static DedupCache dedupCache;
+
+    //option identifiers
+    @Immutable private static int OPTION_NUMBER_OBSERVE = 6;
+    @Immutable private static int OPTION_NUMBER_MAX_AGE = 14;
+
+    // All responses and notifications are built with this writer, directly into the outgoing packet
+    private static MessageWriter responseWriter = new MessageWriter();
+
+    // Gets the responses to requests sent by the node as a client
+    private static ResponseHandler responseHandler;
+
+    // The packet handled by onPacket, for getRequestAddress and getRequestPort
+    private static Packet requestPacket;
+
+    // Receive message, reused for every packet. It is decoded in place and therefore only valid while onPacket runs.
+    private static Message rxMessage = new Message();
+
+    /**
+     * Sets up the queues, the pools and the timers and binds the socket to port.
+     *
+     * @param port               local UDP port
+     * @param inMaxResources     number of resources that can be registered
+     * @param inMaxPendingRequests number of deferred requests that can be queued
+     * @param inMaxObservers     number of observers of all resources together
+     */
+    public static void init(int port, byte inMaxResources, byte inMaxPendingRequests, int inMaxObservers) {
+        localPort = port;
+        maxPendingRequests = inMaxPendingRequests;
+
+        // Initialize queues
+        pendingRequests = new Request[maxPendingRequests];
+        observers = new ObserverRegistry(inMaxObservers);
+        resources = new Resource[inMaxResources];
+        router = new UriRouter(ROUTER_MAX_NODES, ROUTER_MAX_LABEL_BYTES);
+        // served by every server, but not listed in itself
+        router.register(WELL_KNOWN_CORE, WELL_KNOWN_CORE.length, new CoreResource());
+        router.register(METRICS, METRICS.length, new MetricsResource());
+        router.register(TRACE, TRACE.length, new TraceResource());
+        dedupCache = new DedupCache(DEDUP_CACHE_SIZE, DEDUP_MAX_RESPONSE_SIZE, DEDUP_LIFETIME);
+        congestion = new CongestionControl(CONGESTION_PEERS);
+        Metrics.set(Metrics.SEND_LIMIT, MAX_SENDING_OPERATIONS_PER_ROUND);
+
+        // All requests, observers and transient messages come from a pool sized here
+        RequestPool.init(maxPendingRequests, inMaxObservers);
+
+        firstRequestTimer = 3 * inMaxObservers;
+        timerWheel = new TimerWheel(firstRequestTimer + maxPendingRequests, TIMER_WHEEL_BUCKETS, TIMER_WHEEL_TICK);
+        timerWheelTimer = new Timer();
+        timerWheelTimer.setCallback(new TimerEvent(null) {
+            @Override
+            public void invoke(byte param, long time) {
+                CoapServer.onTimerWheel(param, time);
+            }
+        });
+
+        // Setup a periodic timer callback for transmissions
+        timerPeriodicProcessing = new Timer();
+        timerPeriodicProcessing.setCallback(new TimerEvent(null) {
+            @Override
+            public void invoke(byte param, long time) {
+                CoapServer.periodicPacketProcessing(param, time);
+            }
+        });
+
+        socket.bind(localPort);
+    }
+
+    /**
+     * Sets the time in milliseconds a deferred CON request may wait for its piggybacked response, see
+     * separateResponseDeadline. 0 acknowledges deferred requests right away.
+     */
+    public static void setSeparateResponseDeadline(int millis) {
+        separateResponseDeadline = millis;
+    }
+
+    /**
+     * Registers resource under the Uri-Path path, segments separated by '/', and lists it in /.well-known/core
+     * with its link attributes unless the document is full. Returns false if the router or the resource list is
+     * full.
+     */
+    public static boolean register(byte[] path, int pathLength, Resource resource) {
+        if (numResources == resources.length)
+            return false;
+        if (!router.register(path, pathLength, resource))
+            return false;
+        resources[numResources] = resource;
+        numResources++;
+        Core.registerResource(path, pathLength, resource.getLinkAttributes());
+        ResourceDirectoryClient.linksChanged();
+        return true;
+    }
+
+    /**
+     * Sets the handler of responses to requests the node sends as a client, e.g. ResourceDirectoryClient. Requests
+     * are sent from the port of the server with sendPacket, see getCongestionControl for their retransmission.
+     */
+    public static void setResponseHandler(ResponseHandler handler) {
+        responseHandler = handler;
+    }
+
+    static void sendPacket(Packet packet) {
+        transmit(packet);
+    }
+
+    static int getLocalPort() {
+        return localPort;
+    }
+
+    static int nextMessageId() {
+        return calculateMsgID();
+    }
+
+    static CongestionControl getCongestionControl() {
+        return congestion;
+    }
+
+    /**
+     * Source address of the request a Resource callback (handleGet etc.) is called for, only valid during the call.
+     * Deferred requests carry their own, see Request.srcaddr.
+     */
+    public static byte[] getRequestAddress() {
+        return requestPacket.srcaddr;
+    }
+
+    public static int getRequestPort() {
+        return requestPacket.srcport;
+    }
+
+    /**
+     * To be called by an observable resource whenever its representation changed, all of its observers are sent
+     * a notification in the next rounds.
+     */
+    public static void resourceChanged(Resource resource) {
+        resource.version++;
+
+        // observers compare the version with the one they were sent last, deferred requests may be waiting for it
+        if (resource.numObservers != 0 || numPendingRequests != 0)
+            scheduleProcessing();
+    }
+
+    /**
+     * Sets the minimum and maximum time in milliseconds between two notifications to the same observer, like
+     * pmin and pmax of draft-ietf-core-dynlink. 0 disables either bound.
+     */
+    public static void setNotificationIntervals(int minMillis, int maxMillis) {
+        notifyMinSpan = Time.toTickSpan(Time.MILLISECS, minMillis);
+        notifyMaxSpan = Time.toTickSpan(Time.MILLISECS, maxMillis);
+    }
+
+    /**
+     * Triggers a round within SEND_DELAY, unless one is already due before.
+     */
+    private static void scheduleProcessing() {
+        armProcessing(Time.toTickSpan(Time.MILLISECS, SEND_DELAY));
+    }
+
+    private static void armProcessing(long span) {
+        long time = Time.currentTicks() + span;
+        if (processingScheduled && scheduledProcessingTime - time <= 0)
+            return;
+
+        timerPeriodicProcessing.cancelAlarm();
+        timerPeriodicProcessing.setAlarmBySpan(span);
+        processingScheduled = true;
+        scheduledProcessingTime = time;
+    }
+
+    /**
+     *  Receiving UDP Packet. The CoAP message is decoded in place, i.e. it refers to the buffer of packetIn,
+     *  therefore the packet is released only after the request has been handled.
+     *
+     */
+
+    public int onPacket(Packet packetIn) {
+        try {
+            handlePacket(packetIn);
+        } catch (MoteException e) {
+            Trace.record(Trace.EXCEPTION, 0, 0, 0, 0);
+            //##if LOGGING
+            Trace.log();
+            //##endif
+            // we can nothing do about that, so just ignore
+        }
+        packetIn.release();
+        return 0;
+    }
+
+    /**
+     *  Checks the received message and hands requests to their resource. Addresses and message must not be kept
+     *  beyond this call, requests that are queued take a copy of them.
+     *
+     */
+
+    private int handlePacket(Packet packetIn) {
+        int packetRCVdstport = packetIn.dstport;
+        int packetRCVsrcport = packetIn.srcport;
+        byte[] packetRCVsrcAddr = packetIn.srcaddr;
+        byte[] packetRCVdstAddr = packetIn.dstaddr;
+        requestPacket = packetIn;
+        Metrics.count(Metrics.PACKETS_IN);
+        Trace.recordPacket(Trace.RX, packetIn);
+
+        // All CoAP data is in the payload
+        Message coapMessage = rxMessage;
+        byte decodeResult = coapMessage.decode(packetIn.payloadBuf, packetIn.payloadOff, packetIn.payloadLen, true);
+
+        /* First do a sanity check on the incoming packet. We will only proceed with a request. Responses
+           belong to requests the node sent as a client and are handed to the responseHandler.
+         */
+
+        //only CoAP version 1 supported, all other ignored, see draft-ietf-core-coap-18, 3
+        if (coapMessage.getVersion() != 1) {
+            Metrics.count(Metrics.DECODE_FAILURES);
+            return 0;
+        }
+
+        //message could not be parsed: a CON is answered 4.00, anything else is ignored, draft-ietf-core-coap-18, 4.2 and 4.3
+        if (decodeResult == -1) {
+            Metrics.count(Metrics.DECODE_FAILURES);
+            if (coapMessage.getType() == Message.CON)
+                sendBadRequest(packetRCVsrcport, packetRCVsrcAddr, packetRCVdstAddr, coapMessage);
+            return 0;
+        }
+
+        byte typeClass = (byte) ((coapMessage.getCode() & 0xFF) >> 5);  // The upper three bits are the class
+        byte type = coapMessage.getType();
+
+        if (typeClass >= 2 && typeClass <= 5) {
+            boolean handled = responseHandler != null && responseHandler.onResponse(coapMessage, packetIn);
+            // a separate response is acknowledged, or rejected if nobody waits for it, draft-ietf-core-coap-18, 4.2
+            if (type == Message.CON)
+                sendEmpty(handled ? Message.ACK : Message.RST, packetRCVsrcport, packetRCVsrcAddr, packetRCVdstAddr, coapMessage.getMessageId());
+            return 0;
+        }
+
+        if (typeClass != 0) {
+            sendErrorCode(packetRCVsrcport, packetRCVsrcAddr, packetRCVdstAddr, coapMessage, (byte) 5, (byte) 1);
+            return 0;
+        }
+
+        /**
+         * ACKs and RST are currently only used for observers, if no ACK is received after a specific amount of
+         * time, the observer will be removed from the list of observers. the same happens when a RST is
+         * received.
+         *
+         * RST handling:
+         *   for an observer: Remove the observer and do not send any further messages.
+         *   any other:  Ignore
+         *
+         * ACK handling:
+         *   for an observer: Remove the cancel the resend confirmed message timer
+         *   any other: Ignore
+         *
+         */
+
+        if ((type == Message.ACK) || (type == Message.RST)) {
+            int slot = observers.findByMessageId(coapMessage.getMessageId());
+            if (slot != ObserverRegistry.NONE) {
+                if (type == Message.ACK) {
+                    ObserveRequest observer = observers.get(slot);
+                    cancelTimer(resendCONTimer(slot));
+                    observers.setMessageId(slot, ObserverRegistry.NONE);
+                    endCON(observer, true);
+                    observer.retransmissionCounter = 0;
+                    // the peer may have further CONs waiting
+                    scheduleProcessing();
+                    return 0;
+                }
+
+                if (type == Message.RST) {
+                    removeObserver(slot);
+                    return 0;
+                }
+            }
+
+            for (int i = 0; i < maxPendingRequests; i++) {
+                Request request = pendingRequests[i];
+
+                // the separate response was received (ACK) or rejected (RST), either way the exchange is done
+                if (request != null && request.state == Request.WAITING_FOR_ACK && coapMessage.getMessageId() == request.conMessageId) {
+                    endCON(request, type == Message.ACK);
+                    releasePendingRequest(i);
+                    return 0;
+                }
+            }
+
+            // the ACK or RST may be for a request sent as a client
+            if (responseHandler != null)
+                responseHandler.onResponse(coapMessage, packetIn);
+
+            // We do not expect ACK or RST further down the road, so leave handling at this point!
+            return 0;
+        }
+
+        // A retransmitted request gets the reply sent before, or is dropped while its response is still deferred
+        int duplicate = dedupCache.lookup(packetRCVsrcAddr, packetRCVsrcport, coapMessage.getMessageId());
+        if (duplicate != DedupCache.NOT_FOUND) {
+            int length = dedupCache.getResponseLength(duplicate);
+            if (length > 0) {
+                Packet tempPacket = Mac.getPacket();
+                tempPacket.release();
+                Address.copyAddress(packetRCVsrcAddr, 0, tempPacket.dstaddr, 0);
+                Address.copyAddress(packetRCVdstAddr, 0, tempPacket.srcaddr, 0);
+                tempPacket.create(packetRCVsrcport, localPort, length);
+                Util.copyData(dedupCache.getResponses(), dedupCache.getResponseOffset(duplicate), tempPacket.payloadBuf, tempPacket.payloadOff, length);
+                transmit(tempPacket);
+            }
+            return 0;
+        }
+        dedupCache.add(packetRCVsrcAddr, packetRCVsrcport, coapMessage.getMessageId());
+
+        /**
+         * DISPATCHER Code
+         *
+         * The resource is looked up by its Uri-Path in the router, the request is then handed to the callback
+         * of its method.
+         */
+
+        Resource resource = router.route(coapMessage);
+
+        // Nothing recognized => 4.04 not found
+        if (resource == null) {
+            sendErrorCode(packetRCVsrcport, packetRCVsrcAddr, packetRCVdstAddr, coapMessage, (byte) 4, (byte) 4);
+            return 0;
+        }
+
+        byte code = coapMessage.getCode();
+
+        if (code == Message.GET && resource.isObservable() && coapMessage.hasOption(OPTION_NUMBER_OBSERVE)) {
+            if (handleObserve(coapMessage, packetIn, resource))
+                return 0;
+            // otherwise it is answered like a plain GET
+        }
+
+        startResponse(coapMessage);
+        byte result;
+
+        if (code == Message.GET)
+            result = resource.handleGet(coapMessage, responseWriter);
+        else if (code == Message.POST)
+            result = resource.handlePost(coapMessage, responseWriter);
+        else if (code == Message.PUT)
+            result = resource.handlePut(coapMessage, responseWriter);
+        else if (code == Message.DELETE)
+            result = resource.handleDelete(coapMessage, responseWriter);
+        else
+            result = Resource.methodNotAllowed(responseWriter);
+
+        if (result == Resource.DEFER) {
+            deferRequest(coapMessage, packetIn, resource);
+            return 0;
+        }
+
+        Packet tempPacket = responseWriter.prepareResponseForSourcePacket(packetRCVsrcport, packetRCVsrcAddr, packetRCVdstAddr, localPort);
+        sendReply(tempPacket, packetRCVsrcAddr, packetRCVsrcport, coapMessage.getMessageId());
+        return 0;
+    }
+
+    /**
+     * Registers the sender of a GET with the observe option as observer of resource, or removes it if the option
+     * has the value 1. Returns false if the request still has to be answered like a plain GET, i.e. for a
+     * deregistration or if no more observers can be added, according to draft-ietf-core-observe-13, sect. 7.
+     */
+    private boolean handleObserve(Message coapMessage, Packet packetIn, Resource resource) {
+        int observeIndex = coapMessage.getIndexOfOptionWithId(OPTION_NUMBER_OBSERVE, 0);
+
+        // this needs to be 0 or 1. If it is not zero or one we have a protocol error, but earlier versions
+        // CoAP observe did not had this distinction. For now, just register if it has no value set.
+
+        // An observer is identified by its endpoint and the token of its registration, draft-ietf-core-observe-13, 4.1
+        int existing = observers.findByEndpoint(packetIn.srcaddr, packetIn.srcport, coapMessage.token, coapMessage.tokenOffset, coapMessage.getTokenLength());
+
+        if ((coapMessage.getValueSizeOfOptionWithIndex(observeIndex) > 0)
+                && (coapMessage.options[coapMessage.getValueOffsetOfOptionWithIndex(observeIndex)] == 1)) { // unregister
+            if (existing != ObserverRegistry.NONE && observers.get(existing).resource == resource)
+                removeObserver(existing);
+            return false;
+        }
+
+        // a registration with the same token replaces the existing one
+        if (existing != ObserverRegistry.NONE)
+            removeObserver(existing);
+
+        ObserveRequest observer = RequestPool.acquireObserveRequest();
+        if (observer == null)
+            return false;
+
+        observer.init(packetIn.dstaddr, packetIn.dstport, packetIn.srcaddr, packetIn.srcport, coapMessage, true, true);
+        observer.resource = resource;
+        // the current value is due right away
+        observer.lastSentVersion = resource.version - 1;
+        observer.lastSentTime = Time.currentTicks() - notifyMinSpan;
+
+        int slot = observers.add(observer);
+        if (slot == ObserverRegistry.NONE) {
+            RequestPool.releaseObserveRequest(observer);
+            return false;
+        }
+        resource.numObservers++;
+        Metrics.set(Metrics.OBSERVERS, observers.size());
+        Metrics.max(Metrics.OBSERVERS_PEAK, observers.size());
+
+        // a CON registration is answered by the first notification, piggybacked in the ACK like a plain GET
+        if (coapMessage.getType() == Message.CON) {
+            observer.registrationUnacknowledged = true;
+            observer.deadline = Time.currentTicks() + Time.toTickSpan(Time.MILLISECS, separateResponseDeadline);
+            startTimer(notifyTimer(slot), separateResponseDeadline);
+        }
+
+        //set the timer to periodically check whether the observer still listens
+        startTimer(nextCONTimer(slot), CHECKRATE_FOR_OBSERVER_TIMEOUT);
+
+        scheduleProcessing();
+        return true;
+    }
+
+    /**
+     * Queues a copy of a request whose resource deferred the response, replies 5.03 if the queue is full.
+     */
+    private void deferRequest(Message coapMessage, Packet packetIn, Resource resource) {
+        for (int i = 0; i < maxPendingRequests; i++) {
+            if (pendingRequests[i] == null) {
+                Request request = RequestPool.acquireRequest();
+                if (request == null)
+                    break;
+
+                // the options are kept, the resource may still need them
+                request.init(packetIn.dstaddr, packetIn.dstport, packetIn.srcaddr, packetIn.srcport, coapMessage, true, false);
+                request.resource = resource;
+                request.deadline = Time.currentTicks() + Time.toTickSpan(Time.MILLISECS, separateResponseDeadline);
+                if (coapMessage.getType() == Message.CON)
+                    startTimer(requestTimer(i), separateResponseDeadline);
+                pendingRequests[i] = request;
+                numPendingRequests++;
+                Metrics.set(Metrics.PENDING_REQUESTS, numPendingRequests);
+                Metrics.max(Metrics.PENDING_REQUESTS_PEAK, numPendingRequests);
+                scheduleProcessing();
+                return;
+            }
+        }
+        sendErrorCode(packetIn.srcport, packetIn.srcaddr, packetIn.dstaddr, coapMessage, (byte) 5, (byte) 3);
+    }
+
+    /**
+     * Starts the reply to coapMessage in responseWriter with the code 2.05. A CON request gets an ACK and the
+     * original message id, all other replies have to generate a message id.
+     */
+    private static void startResponse(Message coapMessage) {
+        int msgid = coapMessage.getMessageId();
+        byte type = coapMessage.getType();
+
+        if (type == Message.CON) {
+            type = Message.ACK;
+        } else {
+            msgid = calculateMsgID();
+            type = Message.NON;
+        }
+
+        responseWriter.start(type, Message.createResponseCode((byte) 2, (byte) 05), msgid, coapMessage);
+    }
+
+    /**
+     *  periodicPacketProcessing is run when there is work and is trying to send out deferred responses and
+     *  notifications or do bookkeeping of the resources. It re-arms itself every timerDelayPeriodicProcessing
+     *  milliseconds as long as deferred requests are waiting for their resource, their deadlines are kept in the
+     *  timer wheel.
+     *
+     * @param param
+     * @param time
+     */
+
+    public static void periodicPacketProcessing(byte param, long time) {
+        processingScheduled = false;
+        boolean keepRunning = false;
+        Metrics.count(Metrics.ROUNDS);
+
+        for (int r = 0; r < numResources; r++) {
+            Resource resource = resources[r];
+            if (resource.onPeriodicProcessing(hasDemand(resource)))
+                keepRunning = true;
+        }
+
+        if (doSending() == 1) {
+            // sending limit reached, continue right away
+            Metrics.count(Metrics.ROUNDS_SATURATED);
+            scheduleProcessing();
+        } else if (keepRunning || hasDeferredRequests()) {
+            armProcessing(Time.toTickSpan(Time.MILLISECS, timerDelayPeriodicProcessing));
+        }
+    }
+
+    /**
+     * Whether requests are waiting for their resource, those have to be polled with handleDeferred.
+     */
+    private static boolean hasDeferredRequests() {
+        for (int i = 0; i < maxPendingRequests; i++) {
+            if (pendingRequests[i] != null && pendingRequests[i].state != Request.WAITING_FOR_ACK)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean hasDemand(Resource resource) {
+        for (int i = 0; i < maxPendingRequests; i++) {
+            if (pendingRequests[i] != null && pendingRequests[i].resource == resource
+                    && pendingRequests[i].state != Request.WAITING_FOR_ACK)
+                return true;
+        }
+        return resource.numObservers != 0;
+    }
+
+    public void sendErrorCode(int inDstPort, byte[] inDstAddr, byte[] inSrcAddr, Message msg, byte codeClass, byte codeID) {
+        startResponse(msg);
+        responseWriter.setCode(Message.createResponseCode(codeClass, codeID));
+
+        Packet tempPacket = responseWriter.prepareResponseForSourcePacket(inDstPort, inDstAddr, inSrcAddr, localPort);
+        sendReply(tempPacket, inDstAddr, inDstPort, msg.getMessageId());
+    }
+
+    /**
+     * Answers a CON that could not be decoded with 4.00 in an ACK. The token is echoed only if it could be
+     * decoded, the header may announce a token that is invalid or missing.
+     */
+    private static void sendBadRequest(int inDstPort, byte[] inDstAddr, byte[] inSrcAddr, Message msg) {
+        byte tokenLength = msg.token == null ? 0 : msg.getTokenLength();
+        responseWriter.start(Message.ACK, Message.createResponseCode((byte) 4, (byte) 0), msg.getMessageId(), msg.token, msg.tokenOffset, tokenLength);
+        transmit(responseWriter.prepareResponseForSourcePacket(inDstPort, inDstAddr, inSrcAddr, localPort));
+    }
+
+    /**
+     * Sends an empty ACK or RST for the message with msgid.
+     */
+    private static void sendEmpty(byte type, int inDstPort, byte[] inDstAddr, byte[] inSrcAddr, int msgid) {
+        responseWriter.start(type, Message.EMPTY, msgid, null, 0, (byte) 0);
+        transmit(responseWriter.prepareResponseForSourcePacket(inDstPort, inDstAddr, inSrcAddr, localPort));
+    }
+
+    /**
+     * Sends the reply in tempPacket, which has been encoded from responseWriter, to the request with msgid from
+     * clientAddr and clientPort and keeps it in the dedup cache.
+     */
+    private static void sendReply(Packet tempPacket, byte[] clientAddr, int clientPort, int msgid) {
+        dedupCache.storeResponse(clientAddr, clientPort, msgid, tempPacket.payloadBuf, tempPacket.payloadOff, responseWriter.getLength());
+        transmit(tempPacket);
+    }
+
+    /**
+     * Sends tempPacket, all packets of the server go out here and are counted by their code class.
+     */
+    private static void transmit(Packet tempPacket) {
+        Metrics.count(Metrics.PACKETS_OUT);
+        int codeClass = (tempPacket.payloadBuf[tempPacket.payloadOff + 1] & 0xFF) >> 5;
+        if (codeClass == 4)
+            Metrics.count(Metrics.CLIENT_ERRORS);
+        else if (codeClass == 5)
+            Metrics.count(Metrics.SERVER_ERRORS);
+        Trace.recordPacket(Trace.TX, tempPacket);
+        socket.send(tempPacket);
+    }
+
+
+    private static void releasePendingRequest(int idx) {
+        cancelTimer(requestTimer(idx));
+        endCON(pendingRequests[idx], false);
+        RequestPool.releaseRequest(pendingRequests[idx]);
+        pendingRequests[idx] = null;
+        numPendingRequests--;
+        Metrics.set(Metrics.PENDING_REQUESTS, numPendingRequests);
+        // the resource may have no more demand
+        scheduleProcessing();
+    }
+
+    private static void removeObserver(int slot) {
+        ObserveRequest observer = observers.remove(slot);
+        if (observer != null) {
+            observer.resource.numObservers--;
+            Metrics.set(Metrics.OBSERVERS, observers.size());
+            cancelTimer(nextCONTimer(slot));
+            cancelTimer(resendCONTimer(slot));
+            cancelTimer(notifyTimer(slot));
+            endCON(observer, false);
+            RequestPool.releaseObserveRequest(observer);
+            // the resource may have lost its last observer
+            scheduleProcessing();
+        }
+    }
+
+
+    private static int doSending() {
+        if (numPendingRequests==0 && observers.size()==0)
+            return 0; // Quick exit, nothing to do
+
+        int sendOperationsLeft = MAX_SENDING_OPERATIONS_PER_ROUND; // we will not send more than than MAX_SENDING_OPERATIONS_PER_ROUND number of packets.
+
+        // Send reply to all waiting clients, we do this first and then try to update the observers.
+        long now = Time.currentTicks();
+        for (int i = 0; i < maxPendingRequests; i++) {
+            if (sendOperationsLeft==0)
+                return 1;
+            Request request = pendingRequests[i];
+            if (request == null)
+                continue;
+
+            if (request.state == Request.WAITING_FOR_ACK) {
+                if (request.deadline - now > 0)
+                    continue;
+
+                if (request.retransmissionCounter == MAX_RETRANSMIT) {
+                    Metrics.count(Metrics.RETRANSMIT_TIMEOUTS);
+                    Trace.record(Trace.RETRANSMIT_TIMEOUT, request.retransmissionCounter, Util.get16be(request.conFrame, 2), 0, 0);
+                    releasePendingRequest(i);
+                    continue;
+                }
+
+                //resend the separate response, with a growing waiting time for an answer, see CongestionControl.backoff
+                request.retransmissionCounter++;
+                Metrics.count(Metrics.RETRANSMISSIONS);
+                request.currentRetransmissionMillis = congestion.backoff(request.peer, request.currentRetransmissionMillis);
+                request.deadline = now + Time.toTickSpan(Time.MILLISECS, request.currentRetransmissionMillis);
+                startTimer(requestTimer(i), request.currentRetransmissionMillis);
+                Trace.record(Trace.RETRANSMIT, request.retransmissionCounter, Util.get16be(request.conFrame, 2), request.currentRetransmissionMillis, 0);
+
+                Packet tempPacket = request.prepareResponsePacketForRequest(request.conFrameLength, localPort);
+                Util.copyData(request.conFrame, 0, tempPacket.payloadBuf, tempPacket.payloadOff, request.conFrameLength);
+                transmit(tempPacket);
+                sendOperationsLeft--;
+                Metrics.count(Metrics.ROUND_SENDS);
+                continue;
+            }
+
+            // the separate response is a CON, it waits while NSTART CONs to the client are outstanding
+            if (request.state == Request.ACKNOWLEDGED && !congestion.canStart(request.srcaddr, request.srcport))
+                continue;
+
+            Message coapMessage = request.coapMessage;
+            startResponse(coapMessage);
+
+            if (request.resource.handleDeferred(request, responseWriter) == Resource.DEFER) {
+                coapMessage.roundCounter++;
+
+                // a CON request that cannot be answered in time is acknowledged now and answered separately
+                if (request.state == Request.DEFERRED && coapMessage.getType() == Message.CON && request.deadline - now <= 0) {
+                    responseWriter.start(Message.ACK, Message.EMPTY, coapMessage.getMessageId(), null, 0, (byte) 0);
+                    Packet tempPacket = request.prepareResponsePacketForRequest(responseWriter.getLength(), localPort);
+                    responseWriter.encodeTo(tempPacket.payloadBuf, tempPacket.payloadOff);
+                    // a retransmitted request gets the empty ACK again
+                    sendReply(tempPacket, request.srcaddr, request.srcport, coapMessage.getMessageId());
+                    request.state = Request.ACKNOWLEDGED;
+                    sendOperationsLeft--;
+                    Metrics.count(Metrics.ROUND_SENDS);
+                }
+                continue;
+            }
+
+            if (request.state == Request.ACKNOWLEDGED) {
+                // the separate response is confirmable and has its own message id
+                if (!startCON(request))
+                    continue;
+                request.conMessageId = calculateMsgID();
+                responseWriter.setTypeAndMessageId(Message.CON, request.conMessageId);
+            }
+
+            int length = responseWriter.getLength();
+            Packet tempPacket = request.prepareResponsePacketForRequest(length, localPort);
+            responseWriter.encodeTo(tempPacket.payloadBuf, tempPacket.payloadOff);
+            sendOperationsLeft--;
+            Metrics.count(Metrics.ROUND_SENDS);
+
+            if (request.state == Request.DEFERRED) {
+                sendReply(tempPacket, request.srcaddr, request.srcport, coapMessage.getMessageId());
+                releasePendingRequest(i);
+                continue;
+            }
+
+            transmit(tempPacket);
+
+            // keep the separate response as sent until it is acknowledged, unless it is too large to resend
+            if (length > request.conFrame.length) {
+                releasePendingRequest(i);
+                continue;
+            }
+            Util.copyData(tempPacket.payloadBuf, tempPacket.payloadOff, request.conFrame, 0, length);
+            request.conFrameLength = length;
+            request.state = Request.WAITING_FOR_ACK;
+            request.deadline = now + Time.toTickSpan(Time.MILLISECS, request.currentRetransmissionMillis);
+            startTimer(requestTimer(i), request.currentRetransmissionMillis);
+        }
+
+        // Send a notification to all observers whose resource changed since their last one, or whose last one is
+        // older than the maximum interval, round-robin starting after the one served last
+        int i = lastServedObserver;
+        int capacity = observers.getCapacity();
+        for (int n = 0; n < capacity; n++) {
+            i = (i+1) % capacity;
+            ObserveRequest observer = observers.get(i);
+            if (observer == null)
+                continue;
+
+            Resource resource = observer.resource;
+            long sinceLastSent = now - observer.lastSentTime;
+            boolean changed = resource.version != observer.lastSentVersion;
+            boolean refresh = notifyMaxSpan != 0 && sinceLastSent - notifyMaxSpan >= 0;
+            if (!changed && !refresh)
+                continue;
+
+            if (sinceLastSent - notifyMinSpan < 0) {
+                // too early, sent with the latest value once the minimum interval is over
+                timerWheel.schedule(notifyTimer(i), notifyMinSpan - sinceLastSent);
+                armTimerWheel();
+                continue;
+            }
+
+            // an unchanged value sent again gets a new observe number
+            if (!changed)
+                notificationResource = null;
+
+            if (!prepareNotification(resource)) {
+                // nothing to tell yet, stays due, but a CON registration is acknowledged in time like a deferred request
+                if (observer.registrationUnacknowledged && observer.deadline - now <= 0) {
+                    acknowledgeRegistration(observer);
+                    sendOperationsLeft--;
+                    Metrics.count(Metrics.ROUND_SENDS);
+                    if (sendOperationsLeft==0)
+                        return 1;
+                }
+                continue;
+            }
+
+            Message coapMessage = observer.coapMessage;
+            byte type = Message.NON;
+            int msgid;
+            // an error response ends the observation, draft-ietf-core-observe-13, 4.2, it is sent once as NON
+            boolean last = (notificationCode & 0xFF) >> 5 >= 4;
+
+            if (observer.registrationUnacknowledged) {
+                type = Message.ACK;
+                msgid = coapMessage.getMessageId();
+            } else {
+                msgid = calculateMsgID();
+                //create a new confirmable message on regular base, but not if the last one is still in retransmission
+                //or NSTART CONs to the observer are outstanding, then the next notification is tried
+                if (!last && observer.nextMessageAsCON && observer.peer == CongestionControl.NONE && startCON(observer))
+                    type = Message.CON;
+            }
+
+            observer.lastSentVersion = resource.version;
+            observer.lastSentTime = now;
+            if (type == Message.CON)
+                observer.nextMessageAsCON = false;
+            if (notifyMaxSpan != 0) {
+                timerWheel.schedule(notifyTimer(i), notifyMaxSpan);
+                armTimerWheel();
+            } else {
+                cancelTimer(notifyTimer(i));
+            }
+
+            //##if LOGGING
+            Logger.appendString(csr.s2b("CoapServer.doSending() :: Sending observation"));
+            Logger.appendInt(observeIDs);
+            Logger.flush(Mote.INFO);
+            //##endif
+
+            // only header and token are written for this observer, the rest is copied
+            int tokenLength = coapMessage.getTokenLength();
+            int length = 4 + tokenLength + notificationBodyLength;
+            Packet tempPacket = observer.prepareResponsePacketForRequest(length, localPort);
+            int offset = MessageWriter.writeHeader(tempPacket.payloadBuf, tempPacket.payloadOff, type, notificationCode, msgid, coapMessage.token, coapMessage.tokenOffset, tokenLength);
+            Util.copyData(notificationBody, 4, tempPacket.payloadBuf, offset, notificationBodyLength);
+            if (notificationMaxAgeOffset >= 0)
+                writeMaxAge(tempPacket.payloadBuf, offset + notificationMaxAgeOffset, notificationMaxAgeLength, notificationExpiry);
+
+            if (type == Message.CON) {
+                //the observer's coapMessage keeps the header of the latest confirmable message to match its ACK,
+                //the message itself is kept as sent in conFrame to resend it if no ACK was received in a certain time span
+                coapMessage.setMessageHeader(type, (byte) tokenLength, notificationCode, msgid);
+                observers.setMessageId(i, msgid);
+                if (length <= observer.conFrame.length) {
+                    Util.copyData(tempPacket.payloadBuf, tempPacket.payloadOff, observer.conFrame, 0, length);
+                    observer.conFrameLength = length;
+                    observer.maxAgeOffset = notificationMaxAgeOffset < 0 ? -1 : 4 + tokenLength + notificationMaxAgeOffset;
+                    observer.maxAgeLength = notificationMaxAgeLength;
+                    observer.maxAgeExpiry = notificationExpiry;
+                } else {
+                    observer.conFrameLength = 0; // too large to keep, only the timeout is tracked
+                }
+
+                startTimer(resendCONTimer(i), observer.currentRetransmissionMillis);
+            }
+
+            if (type == Message.ACK) {
+                // a retransmitted registration gets the same notification again
+                dedupCache.storeResponse(observer.srcaddr, observer.srcport, msgid, tempPacket.payloadBuf, tempPacket.payloadOff, length);
+                observer.registrationUnacknowledged = false;
+            }
+
+            transmit(tempPacket);
+            if (last)
+                removeObserver(i);
+            lastServedObserver = i;
+            sendOperationsLeft--;
+            Metrics.count(Metrics.ROUND_SENDS);
+
+            if (sendOperationsLeft==0)
+                return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Makes sure notificationBody holds the current notification of resource, encoding it if the last one was
+     * for another resource or version. Each encoding gets the next observe number. One too large for
+     * notificationBody is replaced by a 5.00 without options. Returns false if the resource has no representation
+     * yet.
+     */
+    private static boolean prepareNotification(Resource resource) {
+        if (resource == notificationResource && resource.version == notificationVersion)
+            return notificationAvailable;
+
+        notificationResource = resource;
+        notificationVersion = resource.version;
+        notificationAvailable = false;
+
+        // encoded without token, the header is replaced for every observer
+        responseWriter.start(Message.NON, Message.createResponseCode((byte) 2, (byte) 05), 0, null, 0, (byte) 0);
+        responseWriter.addUintOption(OPTION_NUMBER_OBSERVE, observeIDs);
+        if (!resource.writeNotification(responseWriter))
+            return false;
+
+        if (responseWriter.getLength() > notificationBody.length) {
+            //##if LOGGING
+            Logger.appendString(csr.s2b("CoapServer.prepareNotification() :: NOTIFICATION TOO LARGE"));
+            Logger.flush(Mote.INFO);
+            //##endif
+            // the observers could never get this version, they are told so and removed, see doSending
+            Metrics.count(Metrics.NOTIFICATIONS_TOO_LARGE);
+            responseWriter.start(Message.NON, Message.createResponseCode((byte) 5, (byte) 0), 0, null, 0, (byte) 0);
+        }
+
+        notificationBodyLength = responseWriter.encodeTo(notificationBody, 0) - 4;
+        notificationCode = responseWriter.getCode();
+        notificationMaxAgeOffset = responseWriter.getOptionOffset(OPTION_NUMBER_MAX_AGE);
+        if (notificationMaxAgeOffset >= 0) {
+            notificationMaxAgeLength = responseWriter.getOptionLength(OPTION_NUMBER_MAX_AGE);
+            int maxAge = 0;
+            for (int j = 0; j < notificationMaxAgeLength; j++)
+                maxAge = (maxAge << 8) | (notificationBody[notificationMaxAgeOffset + j] & 0xFF);
+            notificationExpiry = Time.currentTicks() + Time.toTickSpan(Time.SECONDS, maxAge);
+            notificationMaxAgeOffset -= 4;
+        }
+        observeIDs = (observeIDs + 1) & 0xFFFFFF; // the observe option holds 3 bytes at most
+        notificationAvailable = true;
+        return true;
+    }
+
+    /**
+     * Writes the freshness left until expiry, in seconds, into the Max-Age value of length bytes at offset. It
+     * never exceeds the value encoded there, so it fits the length.
+     */
+    private static void writeMaxAge(byte[] buffer, int offset, int length, long expiry) {
+        long left = expiry - Time.currentTicks();
+        int maxAge = left <= 0 ? 0 : (int) Time.fromTickSpan(Time.SECONDS, left);
+        for (int j = length - 1; j >= 0; j--) {
+            buffer[offset + j] = (byte) maxAge;
+            maxAge >>>= 8;
+        }
+    }
+
+    /**
+     * Sends the empty ACK for the CON registration of observer, the first notification follows as NON or CON.
+     */
+    private static void acknowledgeRegistration(ObserveRequest observer) {
+        int msgid = observer.coapMessage.getMessageId();
+        responseWriter.start(Message.ACK, Message.EMPTY, msgid, null, 0, (byte) 0);
+        Packet tempPacket = observer.prepareResponsePacketForRequest(responseWriter.getLength(), localPort);
+        responseWriter.encodeTo(tempPacket.payloadBuf, tempPacket.payloadOff);
+        sendReply(tempPacket, observer.srcaddr, observer.srcport, msgid);
+        observer.registrationUnacknowledged = false;
+    }
+
+    private static short calculateMsgID() {
+        if (msgID<32767)
+            msgID++;
+        else
+            msgID=0;
+
+        return msgID;
+    }
+
+
+    public void onEvent(int ev, long para0) {
+        LED.setState((byte) 0, (byte) 1);
+
+        if (ev == Mac.EV_PARENT_LOST) {
+            timerPeriodicProcessing.cancelAlarm();
+            processingScheduled = false;
+
+            for (int r = 0; r < numResources; r++)
+                resources[r].onParentLost();
+
+            // the round trip times measured over the old parent do not hold any more
+            congestion.resetEstimates();
+        }
+    }
+
+    private static int nextCONTimer(int slot) {
+        return 3 * slot;
+    }
+
+    private static int resendCONTimer(int slot) {
+        return 3 * slot + 1;
+    }
+
+    private static int notifyTimer(int slot) {
+        return 3 * slot + 2;
+    }
+
+    private static int requestTimer(int idx) {
+        return firstRequestTimer + idx;
+    }
+
+    private static void startTimer(int entry, int millis) {
+        timerWheel.schedule(entry, Time.toTickSpan(Time.MILLISECS, millis));
+        armTimerWheel();
+    }
+
+    private static void cancelTimer(int entry) {
+        timerWheel.cancel(entry);
+    }
+
+    /**
+     * Arms timerWheelTimer for the next expiring entry, unless it is armed for an earlier time already.
+     */
+    private static void armTimerWheel() {
+        long now = Time.currentTicks();
+        long span = timerWheel.nextSpan(now);
+        if (span == 0)
+            return;
+        if (timerWheelArmed && timerWheelTime - (now + span) <= 0)
+            return;
+
+        timerWheelTimer.cancelAlarm();
+        timerWheelTimer.setAlarmBySpan(span);
+        timerWheelArmed = true;
+        timerWheelTime = now + span;
+    }
+
+    public static void onTimerWheel(byte param, long time) {
+        timerWheelArmed = false;
+        long now = Time.currentTicks();
+
+        int entry;
+        while ((entry = timerWheel.poll(now)) != TimerWheel.NONE) {
+            if (entry >= firstRequestTimer || entry % 3 == 2)
+                scheduleProcessing(); // a deadline of a deferred request or a notification interval, doSending takes care of it
+            else if (entry % 3 == 0)
+                nextCON(entry / 3);
+            else
+                resendCON(entry / 3);
+        }
+        armTimerWheel();
+    }
+
+    /**
+     * Starts a confirmable message to the client of request at the congestion control and sets its first timeout.
+     * Returns false if it has to wait because NSTART CONs to the client are outstanding.
+     */
+    private static boolean startCON(Request request) {
+        int peer = congestion.acquire(request.srcaddr, request.srcport);
+        if (peer == CongestionControl.NONE)
+            return false;
+        request.peer = peer;
+        request.conSentTime = Time.currentTicks();
+        request.retransmissionCounter = 0;
+        request.currentRetransmissionMillis = congestion.getInitialTimeout(peer);
+        return true;
+    }
+
+    /**
+     * Ends the confirmable message of request at the congestion control, with its round trip time as a sample
+     * if it was acknowledged.
+     */
+    private static void endCON(Request request, boolean acknowledged) {
+        if (request.peer == CongestionControl.NONE)
+            return;
+        if (acknowledged) {
+            long rtt = Time.fromTickSpan(Time.MILLISECS, Time.currentTicks() - request.conSentTime);
+            congestion.onAck(request.peer, (int) rtt, request.retransmissionCounter);
+        }
+        congestion.release(request.peer);
+        request.peer = CongestionControl.NONE;
+    }
+
+    private static void nextCON(int slot) {
+        ObserveRequest observer = observers.get(slot);
+        observer.nextMessageAsCON = true;
+        startTimer(nextCONTimer(slot), CHECKRATE_FOR_OBSERVER_TIMEOUT);
+    }
+
+    //this is called if and only if no ACK was received for the last transmission of the CON message
+    private static void resendCON(int slot) {
+        ObserveRequest observer = observers.get(slot);
+        observer.retransmissionCounter++;
+
+        if(observer.retransmissionCounter > MAX_RETRANSMIT) {
+            //if the waiting time limit is reached
+            Metrics.count(Metrics.RETRANSMIT_TIMEOUTS);
+            if (observer.conFrameLength > 0)
+                Trace.record(Trace.RETRANSMIT_TIMEOUT, MAX_RETRANSMIT, Util.get16be(observer.conFrame, 2), 0, 0);
+            removeObserver(slot);
+        }
+        else {
+            //resend the confirmable message, with a growing waiting time for an answer, see CongestionControl.backoff
+            observer.currentRetransmissionMillis = congestion.backoff(observer.peer, observer.currentRetransmissionMillis);
+            if (observer.conFrameLength > 0) {
+                Metrics.count(Metrics.RETRANSMISSIONS);
+                Trace.record(Trace.RETRANSMIT, observer.retransmissionCounter, Util.get16be(observer.conFrame, 2), observer.currentRetransmissionMillis, 0);
+                Packet tempPacket = observer.prepareResponsePacketForRequest(observer.conFrameLength, localPort);
+                Util.copyData(observer.conFrame, 0, tempPacket.payloadBuf, tempPacket.payloadOff, observer.conFrameLength);
+                if (observer.maxAgeOffset >= 0)
+                    writeMaxAge(tempPacket.payloadBuf, tempPacket.payloadOff + observer.maxAgeOffset, observer.maxAgeLength, observer.maxAgeExpiry);
+                transmit(tempPacket);
+            }
+            startTimer(resendCONTimer(slot), observer.currentRetransmissionMillis);
+        }
+    }
+}
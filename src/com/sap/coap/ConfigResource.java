@@ -0,0 +1,76 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.ArraySource;
+import com.sap.coap.Block1;
+import com.sap.coap.Block2;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.PersistentSink;
+import com.sap.coap.Resource;
+
+/**
+ * A configuration of the mote kept in persistent memory. It is replaced by a PUT, uploaded block-wise if it
+ * does not fit into one message, and read back by a GET. The configuration served stays the previous one until
+ * an upload is complete, see PersistentSink.
+ */
+public final class ConfigResource extends Resource {
+    private PersistentSink sink;
+    private Block1 upload;
+    private ArraySource config;
+
+    /**
+     * persistentData is the storage of a PersistentSink, PersistentSink.getStorageSize bytes in persistent
+     * memory. The configuration found there, e.g. from before a reset, is served right away.
+     */
+    public ConfigResource(byte[] persistentData) {
+        sink = new PersistentSink(persistentData);
+        upload = new Block1(sink);
+        config = new ArraySource(persistentData, sink.getOffset(), sink.getLength());
+    }
+
+    public byte handleGet(Message request, MessageWriter response) {
+        return Block2.respond(request, response, config);
+    }
+
+    public byte handlePut(Message request, MessageWriter response) {
+        if (upload.receive(request, response) == Block1.COMPLETE) {
+            config.setRange(sink.getOffset(), sink.getLength());
+            response.setCode(Message.createResponseCode((byte) 2, (byte) 4)); // 2.04 Changed
+        }
+        return RESPOND;
+    }
+}
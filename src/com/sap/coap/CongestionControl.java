@@ -0,0 +1,262 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * Congestion control for the confirmable messages the server sends, per peer (address and port):
+ *
+ *  - NSTART: at most NSTART confirmable messages are outstanding towards a peer, draft-ietf-core-coap-18, 4.7.
+ *    acquire fails while the limit is reached, release frees the slot once the exchange is done.
+ *  - The retransmission timeout is estimated from the round trip times of acknowledged messages like CoCoA
+ *    (draft-bormann-core-cocoa): a strong estimator fed by ACKs of messages that were not retransmitted, a weak
+ *    one by ACKs after one or two retransmissions measured from the first transmission, both blended into the
+ *    overall RTO. The RTO drifts back towards ACK_TIMEOUT while a peer is not used, retransmissions back off by
+ *    a factor depending on the RTO.
+ *
+ * Peers are kept in a fixed table, an unknown peer replaces the least recently used one without outstanding
+ * messages. All times are in milliseconds, all storage is allocated by the constructor.
+ */
+public final class CongestionControl {
+    @Immutable public static final byte ADDRESS_SIZE = 16;
+
+    @Immutable public static final byte NONE = -1;
+
+    @Immutable public static final byte NSTART = 1;
+
+    // initial RTO of a peer and the value an unused RTO drifts back to, draft-ietf-core-coap-18, 4.8
+    @Immutable public static final int ACK_TIMEOUT = 2000;
+
+    // bounds of the RTO and of a backed off timeout
+    @Immutable private static final int MIN_RTO = 200;
+    @Immutable private static final int MAX_RTO = 32000;
+
+    // RTOs below / above these are backed off by 3 / 1.5 instead of 2, and aged when unused
+    @Immutable private static final int SMALL_RTO = 1000;
+    @Immutable private static final int LARGE_RTO = 3000;
+
+    private int numPeers;
+
+    private byte[] addresses;
+    private int[] ports;
+    private byte[] outstanding;
+    private long[] lastUsedTicks; // 0 for a free entry
+    private int[] rto;
+    private int[] strongRtt; // smoothed RTT of the strong estimator, 0 before its first sample
+    private int[] strongVar;
+    private int[] weakRtt; // smoothed RTT of the weak estimator, 0 before its first sample
+    private int[] weakVar;
+
+    public CongestionControl(int peers) {
+        numPeers = peers;
+
+        addresses = new byte[peers * ADDRESS_SIZE];
+        ports = new int[peers];
+        outstanding = new byte[peers];
+        lastUsedTicks = new long[peers];
+        rto = new int[peers];
+        strongRtt = new int[peers];
+        strongVar = new int[peers];
+        weakRtt = new int[peers];
+        weakVar = new int[peers];
+    }
+
+    /**
+     * Tells whether acquire would succeed for the peer.
+     */
+    public boolean canStart(byte[] addr, int port) {
+        int peer = find(addr, port);
+        if (peer != NONE)
+            return outstanding[peer] < NSTART;
+        return findReplaceable() != NONE;
+    }
+
+    /**
+     * Starts a confirmable message to the peer. Returns its entry, to be passed to the other methods until
+     * release, or NONE if NSTART messages are outstanding already or no entry is free.
+     */
+    public int acquire(byte[] addr, int port) {
+        long now = Time.currentTicks();
+        int peer = find(addr, port);
+        if (peer == NONE) {
+            peer = findReplaceable();
+            if (peer == NONE)
+                return NONE;
+            Util.copyData(addr, 0, addresses, peer * ADDRESS_SIZE, ADDRESS_SIZE);
+            ports[peer] = port;
+            outstanding[peer] = 0;
+            rto[peer] = ACK_TIMEOUT;
+            clearEstimators(peer);
+        } else {
+            if (outstanding[peer] >= NSTART)
+                return NONE;
+            age(peer, now);
+        }
+
+        outstanding[peer]++;
+        lastUsedTicks[peer] = now;
+        if (lastUsedTicks[peer] == 0)
+            lastUsedTicks[peer] = 1;
+        return peer;
+    }
+
+    /**
+     * Ends a confirmable message started by acquire, acknowledged or not.
+     */
+    public void release(int peer) {
+        if (outstanding[peer] > 0)
+            outstanding[peer]--;
+    }
+
+    /**
+     * Timeout of the first transmission to the peer: its RTO, dithered by a random factor between 1 and 1.5.
+     */
+    public int getInitialTimeout(int peer) {
+        int timeout = rto[peer];
+        return timeout + ((timeout >> 1) * (Util.rand8() & 0xFF) >> 8);
+    }
+
+    /**
+     * Timeout of the next retransmission after one of timeoutMillis ran out.
+     */
+    public int backoff(int peer, int timeoutMillis) {
+        int current = rto[peer];
+        if (current < SMALL_RTO)
+            timeoutMillis *= 3;
+        else if (current > LARGE_RTO)
+            timeoutMillis += timeoutMillis >> 1;
+        else
+            timeoutMillis *= 2;
+        return timeoutMillis > MAX_RTO ? MAX_RTO : timeoutMillis;
+    }
+
+    /**
+     * Feeds the round trip time of an acknowledged message into the estimators, measured from its first
+     * transmission. Samples after more than two retransmissions are ambiguous and ignored.
+     */
+    public void onAck(int peer, int rttMillis, int retransmissions) {
+        if (rttMillis <= 0)
+            rttMillis = 1;
+
+        // RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R, RFC 6298; strong with K = 4, weak with K = 1
+        if (retransmissions == 0) {
+            if (strongRtt[peer] == 0) {
+                strongRtt[peer] = rttMillis;
+                strongVar[peer] = rttMillis >> 1;
+            } else {
+                int delta = strongRtt[peer] - rttMillis;
+                strongVar[peer] = strongVar[peer] - (strongVar[peer] >> 2) + ((delta < 0 ? -delta : delta) >> 2);
+                strongRtt[peer] = strongRtt[peer] - (strongRtt[peer] >> 3) + (rttMillis >> 3);
+            }
+            int estimate = strongRtt[peer] + 4 * strongVar[peer];
+            // RTO = 1/2 E_strong + 1/2 RTO
+            setRto(peer, (estimate >> 1) + (rto[peer] >> 1));
+        } else if (retransmissions <= 2) {
+            if (weakRtt[peer] == 0) {
+                weakRtt[peer] = rttMillis;
+                weakVar[peer] = rttMillis >> 1;
+            } else {
+                int delta = weakRtt[peer] - rttMillis;
+                weakVar[peer] = weakVar[peer] - (weakVar[peer] >> 2) + ((delta < 0 ? -delta : delta) >> 2);
+                weakRtt[peer] = weakRtt[peer] - (weakRtt[peer] >> 3) + (rttMillis >> 3);
+            }
+            int estimate = weakRtt[peer] + weakVar[peer];
+            // RTO = 1/4 E_weak + 3/4 RTO
+            setRto(peer, (estimate >> 2) + rto[peer] - (rto[peer] >> 2));
+        }
+    }
+
+    /**
+     * Forgets the estimates of all peers, e.g. when the route to them changed. Outstanding messages are kept.
+     */
+    public void resetEstimates() {
+        for (int i = 0; i < numPeers; i++) {
+            rto[i] = ACK_TIMEOUT;
+            clearEstimators(i);
+        }
+    }
+
+    public int getRto(int peer) {
+        return rto[peer];
+    }
+
+    private void setRto(int peer, int value) {
+        if (value < MIN_RTO)
+            value = MIN_RTO;
+        else if (value > MAX_RTO)
+            value = MAX_RTO;
+        rto[peer] = value;
+    }
+
+    private int find(byte[] addr, int port) {
+        for (int i = 0; i < numPeers; i++) {
+            if (lastUsedTicks[i] != 0 && ports[i] == port
+                    && Util.compareData(addresses, i * ADDRESS_SIZE, addr, 0, ADDRESS_SIZE) == 0xFFFF)
+                return i;
+        }
+        return NONE;
+    }
+
+    // A free entry, otherwise the least recently used one without outstanding messages
+    private int findReplaceable() {
+        int entry = NONE;
+        for (int i = 0; i < numPeers; i++) {
+            if (lastUsedTicks[i] == 0)
+                return i;
+            if (outstanding[i] == 0 && (entry == NONE || lastUsedTicks[i] - lastUsedTicks[entry] < 0))
+                entry = i;
+        }
+        return entry;
+    }
+
+    private void clearEstimators(int peer) {
+        strongRtt[peer] = 0;
+        strongVar[peer] = 0;
+        weakRtt[peer] = 0;
+        weakVar[peer] = 0;
+    }
+
+    // A small RTO not used for 16 times its value is doubled, a large one not used for 4 times its value moves
+    // half way back to ACK_TIMEOUT, so stale estimates neither cause spurious retransmissions nor long stalls.
+    private void age(int peer, long now) {
+        long idleMillis = Time.fromTickSpan(Time.MILLISECS, now - lastUsedTicks[peer]);
+        int current = rto[peer];
+        if (current < SMALL_RTO && idleMillis > 16 * current) {
+            int doubled = current * 2;
+            rto[peer] = doubled > ACK_TIMEOUT ? ACK_TIMEOUT : doubled;
+        } else if (current > LARGE_RTO && idleMillis > 4 * current) {
+            rto[peer] = (current + ACK_TIMEOUT) >> 1;
+        }
+    }
+}
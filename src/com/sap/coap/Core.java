@@ -39,43 +39,219 @@ import com.ibm.saguaro.system.*;
 import com.ibm.iris.*;
 import com.ibm.saguaro.mrv6.*;
 
-
+/**
+ * The link-format document of /.well-known/core, RFC 6690. It is built once into coreString, in persistent
+ * memory, while resources are registered, see CoapServer.register, and served by CoreResource. For each link a compact index keeps its
+ * position and the values of its rt and if attributes, so that queries (?rt=, ?if=) are evaluated without
+ * parsing the document again.
+ */
 public final class Core {
-//    @Immutable
-    public static byte[] coreString = new byte[128];
-    
+    @Immutable public static final byte MAX_LINKS = 8;
+
+    // all links
+    @Immutable public static final int ALL_LINKS = 0xFF;
+
+    // rebuilt on every start, bytes that are already as registered are not written again, see store
+    @Immutable public static byte[] coreString = new byte[256];
+
     public static int coreStringLength = 0;
-  
-    public static void registerResourceString(byte[] resource, int len) {
-    //   Util.updatePersistentData(resource,0,coreString,0, len); 
-       Util.copyData(resource,0,coreString,0,len);     
-       coreStringLength = len;    
+
+    // index of the links in coreString: start and length of each link and of its rt and if values (length 0
+    // if the attribute is missing)
+    private static int numLinks = 0;
+    private static short[] linkStarts = new short[MAX_LINKS];
+    private static short[] linkLengths = new short[MAX_LINKS];
+    private static short[] rtStarts = new short[MAX_LINKS];
+    private static short[] rtLengths = new short[MAX_LINKS];
+    private static short[] ifStarts = new short[MAX_LINKS];
+    private static short[] ifLengths = new short[MAX_LINKS];
+
+    @Immutable private static byte[] LINK_START = csr.s2b(",</");
+    @Immutable private static byte[] LINK_END = csr.s2b(">");
+    @Immutable private static byte[] RT = csr.s2b("rt");
+    @Immutable private static byte[] IF = csr.s2b("if");
+
+    /**
+     * Adds the link of a resource, </path> followed by its attributes (e.g. ;if="sensor";obs, may be null).
+     * Returns false if the document or the index is full, the resource is then not listed.
+     */
+    public static boolean registerResource(byte[] path, int pathLength, byte[] attributes) {
+        int attributesLength = attributes == null ? 0 : attributes.length;
+        int separator = coreStringLength > 0 ? 1 : 0;
+        int linkLength = 2 + pathLength + 1 + attributesLength;
+        if (numLinks == MAX_LINKS || coreStringLength + separator + linkLength > coreString.length)
+            return false;
+
+        // ",</" or "</" for the first link
+        store(LINK_START, 1 - separator, 2 + separator);
+        int start = coreStringLength - 2;
+        store(path, 0, pathLength);
+        store(LINK_END, 0, 1);
+        store(attributes, 0, attributesLength);
+
+        indexLink(start, linkLength);
+        return true;
     }
-    
-    public static void registerResource(byte [] resource, int len) {
-       if (coreStringLength>0) {
-         Util.updatePersistentData(csr.s2b(","),0,coreString,coreStringLength, len);      
-         coreStringLength += 1;      
-       }
-       
-       Util.updatePersistentData(resource,0,coreString,coreStringLength, len);      
-       coreStringLength += len;
+
+    // Appends length bytes of buffer to coreString. The document is the same after every start of the same
+    // assembly, so persistent memory is only written where it differs.
+    private static void store(byte[] buffer, int offset, int length) {
+        if (length > 0 && Util.compareData(buffer, offset, coreString, coreStringLength, length) != 0xFFFF)
+            Util.updatePersistentData(buffer, offset, coreString, coreStringLength, length);
+        coreStringLength += length;
+    }
+
+    public static int getNumLinks() {
+        return numLinks;
     }
 
-    public static Message handleCore() {
-     Message coapMessage = new Message();
-     /*  coapMessage.payload = coreString;
-       coapMessage.payloadLength = coreStringLength;
-       coapMessage.options = new byte[4];
-       coapMessage.options[0] = 12;
-       Util.set16(coapMessage.options, 1, 4);
-       coapMessage.options[3] = 40;
-       coapMessage.optionArrayLength = 4;
-         
-                        
-       coapMessage.setType((byte) 2);
-       coapMessage.header[1]=(byte) 69;
-*/      return coapMessage;
+    /**
+     * Version of the document, e.g. as ETag, never 0. Links are only appended, so the length tells it.
+     */
+    public static int getVersion() {
+        return coreStringLength + 1;
     }
 
-}
\ No newline at end of file
+    /**
+     * Returns the links matching a query, a bit per link in order of registration. query is the value of one
+     * Uri-Query option, e.g. rt=temperature. A value ending in * matches every value starting with the part before,
+     * RFC 6690, 4.1. Queries on other attributes match all links.
+     */
+    public static int match(byte[] query, int offset, int length) {
+        int nameLength = 0;
+        while (nameLength < length && query[offset + nameLength] != '=')
+            nameLength++;
+        if (nameLength == length || nameLength != 2)
+            return ALL_LINKS;
+
+        boolean rt = Util.compareData(query, offset, RT, 0, 2) == 0xFFFF;
+        if (!rt && Util.compareData(query, offset, IF, 0, 2) != 0xFFFF)
+            return ALL_LINKS;
+
+        int valueOffset = offset + 3;
+        int valueLength = length - 3;
+        boolean prefix = valueLength > 0 && query[valueOffset + valueLength - 1] == '*';
+        if (prefix)
+            valueLength--;
+
+        int mask = 0;
+        for (int i = 0; i < numLinks; i++) {
+            int start = rt ? rtStarts[i] : ifStarts[i];
+            int end = start + (rt ? rtLengths[i] : ifLengths[i]);
+            // the attribute is a space separated list of values, one of them has to match
+            while (start < end) {
+                int valueEnd = start;
+                while (valueEnd < end && coreString[valueEnd] != ' ')
+                    valueEnd++;
+                int size = valueEnd - start;
+                if ((size == valueLength || (prefix && size > valueLength))
+                        && (valueLength == 0 || Util.compareData(coreString, start, query, valueOffset, valueLength) == 0xFFFF)) {
+                    mask |= 1 << i;
+                    break;
+                }
+                start = valueEnd + 1;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Length of the document made of the links in mask, separated by commas.
+     */
+    public static int getLength(int mask) {
+        if ((mask & ALL_LINKS) == ALL_LINKS)
+            return coreStringLength;
+        int length = 0;
+        for (int i = 0; i < numLinks; i++) {
+            if ((mask & (1 << i)) != 0)
+                length += (length > 0 ? 1 : 0) + linkLengths[i];
+        }
+        return length;
+    }
+
+    /**
+     * Copies length bytes from offset of the document made of the links in mask to buffer.
+     */
+    public static void read(int mask, int offset, byte[] buffer, int bufferOffset, int length) {
+        int position = 0; // in the filtered document
+        boolean first = true;
+        for (int i = 0; i < numLinks && length > 0; i++) {
+            if ((mask & (1 << i)) == 0)
+                continue;
+            if (!first) {
+                if (offset == position) {
+                    buffer[bufferOffset++] = ',';
+                    offset++;
+                    length--;
+                }
+                position++;
+            }
+            first = false;
+
+            int size = linkLengths[i];
+            if (length > 0 && offset < position + size) {
+                int from = offset - position;
+                int count = size - from;
+                if (count > length)
+                    count = length;
+                Util.copyData(coreString, linkStarts[i] + from, buffer, bufferOffset, count);
+                bufferOffset += count;
+                offset += count;
+                length -= count;
+            }
+            position += size;
+        }
+    }
+
+    // Finds the rt and if values of the link at start, e.g. </sensor/temp>;if="sensor";rt="temperature"
+    private static void indexLink(int start, int length) {
+        int i = numLinks;
+        linkStarts[i] = (short) start;
+        linkLengths[i] = (short) length;
+        rtLengths[i] = 0;
+        ifLengths[i] = 0;
+
+        int end = start + length;
+        int position = start;
+        while (position < end && coreString[position] != '>')
+            position++;
+        position++;
+        while (position < end) {
+            // position is at the ';' before an attribute
+            int name = position + 1;
+            int nameEnd = name;
+            while (nameEnd < end && coreString[nameEnd] != '=' && coreString[nameEnd] != ';')
+                nameEnd++;
+            int value = nameEnd;
+            int valueEnd = nameEnd;
+            if (nameEnd < end && coreString[nameEnd] == '=') {
+                value = nameEnd + 1;
+                if (value < end && coreString[value] == '"') {
+                    value++;
+                    valueEnd = value;
+                    while (valueEnd < end && coreString[valueEnd] != '"')
+                        valueEnd++;
+                    position = valueEnd + 1;
+                } else {
+                    valueEnd = value;
+                    while (valueEnd < end && coreString[valueEnd] != ';')
+                        valueEnd++;
+                    position = valueEnd;
+                }
+            } else {
+                position = nameEnd;
+            }
+
+            if (nameEnd - name == 2 && Util.compareData(coreString, name, RT, 0, 2) == 0xFFFF) {
+                rtStarts[i] = (short) value;
+                rtLengths[i] = (short) (valueEnd - value);
+            } else if (nameEnd - name == 2 && Util.compareData(coreString, name, IF, 0, 2) == 0xFFFF) {
+                ifStarts[i] = (short) value;
+                ifLengths[i] = (short) (valueEnd - value);
+            }
+            while (position < end && coreString[position] != ';')
+                position++;
+        }
+        numLinks++;
+    }
+}
@@ -0,0 +1,73 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.Block2;
+import com.sap.coap.Core;
+import com.sap.coap.LinkFormatSource;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Resource;
+
+/**
+ * /.well-known/core, the links of all registered resources in link-format, RFC 6690. Each Uri-Query option
+ * (rt=..., if=...) narrows the links down, see Core.match. The document is served block-wise if it does not fit
+ * into one message, with the version of Core as ETag, so a transfer across the registration of another
+ * resource is restarted, see Block2.respond.
+ */
+public final class CoreResource extends Resource {
+    @Immutable private static int OPTION_URI_QUERY = 15;
+    @Immutable private static int CONTENT_FORMAT_LINK_FORMAT = 40;
+
+    private LinkFormatSource links = new LinkFormatSource();
+
+    public byte handleGet(Message request, MessageWriter response) {
+        int mask = Core.ALL_LINKS;
+        for (int i = 0; ; i++) {
+            int index = request.getIndexOfOptionWithId(OPTION_URI_QUERY, i);
+            if (index < 0)
+                break;
+            mask &= Core.match(request.options, request.getValueOffsetOfOptionWithIndex(index), request.getValueSizeOfOptionWithIndex(index));
+        }
+
+        if (mask == 0 && Core.getNumLinks() > 0) {
+            response.setCode(Message.createResponseCode((byte) 4, (byte) 4));
+            return RESPOND;
+        }
+
+        links.setMask(mask);
+        return Block2.respond(request, response, links, Core.getVersion(), CONTENT_FORMAT_LINK_FORMAT);
+    }
+}
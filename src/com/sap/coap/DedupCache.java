@@ -0,0 +1,148 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * Remembers the last requests by source address, port and message id together with the reply sent for them,
+ * so that a retransmitted request is answered by replaying the reply instead of being handled again, see
+ * draft-ietf-core-coap-18, 4.5. Entries are kept for lifetimeMillis, when the cache is full the oldest entry is
+ * replaced. All storage is allocated by the constructor.
+ *
+ * An entry without a reply is in progress, e.g. its response was deferred. Duplicates of it are dropped, the
+ * response will be sent anyway.
+ */
+public final class DedupCache {
+    @Immutable public static final byte ADDRESS_SIZE = 16;
+
+    @Immutable public static final byte NOT_FOUND = -1;
+
+    private int numEntries;
+    private int maxResponseSize;
+    private long lifetimeTicks;
+
+    private byte[] addresses;
+    private int[] ports;
+    private int[] messageIds;
+    private long[] expiryTicks; // 0 for a free entry
+    private byte[] responses;
+    private int[] responseLengths; // 0 while in progress
+
+    public DedupCache(int entries, int inMaxResponseSize, int lifetimeMillis) {
+        numEntries = entries;
+        maxResponseSize = inMaxResponseSize;
+        lifetimeTicks = Time.toTickSpan(Time.MILLISECS, lifetimeMillis);
+
+        addresses = new byte[entries * ADDRESS_SIZE];
+        ports = new int[entries];
+        messageIds = new int[entries];
+        expiryTicks = new long[entries];
+        responses = new byte[entries * maxResponseSize];
+        responseLengths = new int[entries];
+    }
+
+    /**
+     * Returns the entry of the request, or NOT_FOUND if it is not a duplicate.
+     */
+    public int lookup(byte[] addr, int port, int msgid) {
+        long now = Time.currentTicks();
+        for (int i = 0; i < numEntries; i++) {
+            if (expiryTicks[i] == 0)
+                continue;
+            if (expiryTicks[i] - now <= 0) {
+                expiryTicks[i] = 0;
+                continue;
+            }
+            if (messageIds[i] == msgid && ports[i] == port
+                    && Util.compareData(addresses, i * ADDRESS_SIZE, addr, 0, ADDRESS_SIZE) == 0xFFFF)
+                return i;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Adds a request that is handled now, replacing a free or the oldest entry.
+     */
+    public void add(byte[] addr, int port, int msgid) {
+        int entry = 0;
+        for (int i = 0; i < numEntries; i++) {
+            if (expiryTicks[i] == 0) {
+                entry = i;
+                break;
+            }
+            if (expiryTicks[i] - expiryTicks[entry] < 0)
+                entry = i;
+        }
+
+        Util.copyData(addr, 0, addresses, entry * ADDRESS_SIZE, ADDRESS_SIZE);
+        ports[entry] = port;
+        messageIds[entry] = msgid;
+        responseLengths[entry] = 0;
+        expiryTicks[entry] = Time.currentTicks() + lifetimeTicks;
+        if (expiryTicks[entry] == 0)
+            expiryTicks[entry] = 1;
+    }
+
+    /**
+     * Keeps the encoded reply to a request that has been added. If the reply does not fit, the entry is dropped
+     * and a duplicate is handled like a new request.
+     */
+    public void storeResponse(byte[] addr, int port, int msgid, byte[] buf, int off, int len) {
+        int entry = lookup(addr, port, msgid);
+        if (entry == NOT_FOUND)
+            return;
+
+        if (len > maxResponseSize || len == 0) {
+            expiryTicks[entry] = 0;
+            return;
+        }
+        Util.copyData(buf, off, responses, entry * maxResponseSize, len);
+        responseLengths[entry] = len;
+    }
+
+    /**
+     * Length of the reply kept for entry, 0 while the request is in progress.
+     */
+    public int getResponseLength(int entry) {
+        return responseLengths[entry];
+    }
+
+    public byte[] getResponses() {
+        return responses;
+    }
+
+    public int getResponseOffset(int entry) {
+        return entry * maxResponseSize;
+    }
+}
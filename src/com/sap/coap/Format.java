@@ -0,0 +1,102 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * Formatting of numbers as UTF-8 text into a buffer given by the caller, for payloads of plain text resources,
+ * e.g. for JSON clients. Nothing is allocated, the resources keep a buffer of the formatted size.
+ */
+public final class Format {
+    @Immutable private static byte[] DIGITS = csr.s2b("0123456789abcdef");
+
+    /**
+     * Writes number right-aligned to buffer at offset, in digits bytes plus one for the sign if it is negative and
+     * one for the decimal separator if there is one.
+     *
+     * @param number  The number to be converted
+     * @param base    The target base. Need to be between 2 (binary) and 16 (hexadecimal)
+     * @param digits  Number of digits. Missing digits will be filled with spaces
+     * @param decimalSeparatorPosition Position of the decimal separator from the right, -1 for none
+     * @return the number of bytes written, 0 if the base is not supported or the number needs more digits
+     */
+    public static int intToUtf8(int number, int base, int digits, int decimalSeparatorPosition, byte[] buffer, int offset) {
+        if (base < 2 || base > 16)
+            return 0;
+
+        int length = utf8Length(number, digits, decimalSeparatorPosition);
+        boolean negative = number < 0;
+        if (negative)
+            number = -number;
+        if (number < 0)
+            return 0; // Integer.MIN_VALUE
+        if (decimalSeparatorPosition >= digits)
+            decimalSeparatorPosition = -1;
+
+        int position = offset + length;
+        while (number != 0 && digits != 0) {
+            position--;
+            digits--;
+            buffer[position] = DIGITS[number % base];
+            number /= base;
+
+            decimalSeparatorPosition--;
+            if (decimalSeparatorPosition == 0) {
+                position--;
+                buffer[position] = '.';
+            }
+        }
+
+        if (number != 0)
+            return 0; // not enough digits for number
+
+        while (position > offset) {
+            position--;
+            buffer[position] = ' ';
+        }
+        if (negative)
+            buffer[offset] = '-';
+        return length;
+    }
+
+    // digits, a byte for the sign if negative and one for the separator if there is one
+    private static int utf8Length(int number, int digits, int decimalSeparatorPosition) {
+        int length = digits;
+        if (number < 0)
+            length++;
+        if (decimalSeparatorPosition >= 0 && decimalSeparatorPosition < digits)
+            length++;
+        return length;
+    }
+}
@@ -40,19 +40,40 @@ import com.ibm.saguaro.system.*;
 import com.ibm.iris.*;
 import com.ibm.saguaro.mrv6.*;
 
-//##if LOGGING
-import com.ibm.saguaro.logger.*;
-//##endif
-
 public class Message {
     public byte[] header = new byte[4];
     public byte[] token = null;
+    public int tokenOffset = 0;
     public byte[] payload = null;
+    public int payloadOffset = 0;
     public int payloadLength = 0;
     public byte[] options;
+    public int optionOffset = 0;
     public int optionArraySize = 0;
     public int roundCounter = 0;
 
+    // token, options and payload are (buffer, offset) pairs. After an in-place decode all three refer to the
+    // buffer of the received packet, i.e. the message is only a view and must not outlive that buffer.
+    // All option offsets handed out by this class are relative to optionOffset.
+
+    // Arrays owned by this message which copyFrom reuses, see reserve
+    private byte[] tokenStorage;
+    private byte[] optionStorage;
+    private byte[] payloadStorage;
+
+    // Option index, rebuilt whenever the options change (decode, insert, remove, copy). Entry i describes the
+    // i-th option in the options array: its number, the offset of its header and of its value (both relative
+    // to optionOffset) and the value length. Since options are sorted, lookups by number are a binary search.
+    private int optionCount = 0;
+    private int[] indexNumbers;
+    private int[] indexOffsets;
+    private int[] indexValueOffsets;
+    private int[] indexValueSizes;
+
+    @Immutable private static final byte INITIAL_INDEX_SIZE = 8;
+
+    @Immutable public static final byte MAX_TOKEN_LENGTH = 8;
+
     @Immutable public static final byte CON = 0x00;
     @Immutable public static final byte NON = 0x01;
     @Immutable public static final byte ACK = 0x02;
@@ -66,13 +87,30 @@ public class Message {
 
     public final void setPayload(byte[] mypayload){
         this.payload = mypayload;
+        this.payloadOffset = 0;
         this.payloadLength = mypayload.length;
     }
 
+    public final void setPayload(byte[] buffer, int offset, int length){
+        this.payload = buffer;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+    }
+
     public Message() {
         header[0] = 0x40; // set the version number
     }
 
+    /**
+     * Preallocates the arrays used by copyFrom, so copying a message of at most the given sizes does
+     * not allocate. Used for messages that are kept in a pool.
+     */
+    public final void reserve(int optionCapacity, int payloadCapacity) {
+        tokenStorage = new byte[MAX_TOKEN_LENGTH];
+        optionStorage = new byte[optionCapacity];
+        payloadStorage = new byte[payloadCapacity];
+    }
+
     /// <summary>
     /// Constructor.
     /// </summary>
@@ -122,11 +160,14 @@ public class Message {
 
     public final void clearOptions() {
         options=null;
+        optionOffset=0;
         optionArraySize=0;
+        optionCount=0;
     }
 
     public final void clearPayload() {
         payloadLength = 0;
+        payloadOffset = 0;
         payload = null;
     }
 
@@ -134,56 +175,88 @@ public class Message {
         return this.payload;
     }
 
+    public final int getPayloadOffset() {
+        return this.payloadOffset;
+    }
+
+    public final byte[] getToken() {
+        return this.token;
+    }
+
+    public final int getTokenOffset() {
+        return this.tokenOffset;
+    }
+
+    /**
+     * Copies header and token of source into this message, and options and payload if requested. The copy
+     * owns all of its arrays, so it stays valid after the buffer source was decoded from has been reused.
+     * The arrays of a previous copy (or of reserve) are reused if they are large enough.
+     */
+    public final void copyFrom(Message source, boolean withOptions, boolean withPayload) {
+        Util.copyData(source.header, 0, header, 0, 4);
+        roundCounter = 0;
+
+        byte tokenLength = source.getTokenLength();
+        token = null;
+        tokenOffset = 0;
+        if (tokenLength > 0) {
+            if (tokenStorage == null)
+                tokenStorage = new byte[MAX_TOKEN_LENGTH];
+            token = tokenStorage;
+            Util.copyData(source.token, source.tokenOffset, token, 0, tokenLength);
+        }
+
+        clearOptions();
+        if (withOptions && source.optionArraySize > 0) {
+            if (optionStorage == null || optionStorage.length < source.optionArraySize)
+                optionStorage = new byte[source.optionArraySize];
+            options = optionStorage;
+            Util.copyData(source.options, source.optionOffset, options, 0, source.optionArraySize);
+            optionArraySize = source.optionArraySize;
+            indexOptions();
+        }
+
+        clearPayload();
+        if (withPayload && source.payloadLength > 0) {
+            if (payloadStorage == null || payloadStorage.length < source.payloadLength)
+                payloadStorage = new byte[source.payloadLength];
+            payload = payloadStorage;
+            Util.copyData(source.payload, source.payloadOffset, payload, 0, source.payloadLength);
+            payloadLength = source.payloadLength;
+        }
+    }
+
     public final int getPayloadSize() {
         return this.payloadLength;
     }
 
     public byte[] getURIfromOptionArray() {
-        int partNo = 0;
-        int bufferOffset = 0;
-        int offset = getOffsetOfOptionWithId(11, partNo);
+        int first = getIndexOfOptionWithId(11, 0);
 
-        if (offset<0)
+        if (first<0)
             return null;
 
-        int bufferSize = 0;
-
         // Calculate buffer size
-        int firstOffset = offset;
+        int bufferSize = 0;
+        int index = first;
 
-        while (offset>=0) {
-            if (partNo>0)
+        while (index < optionCount && indexNumbers[index] == 11) {
+            if (index>first)
                 bufferSize++;
-
-            int valueSize = getValueSizeOfOptionWithOffset(offset);
-            bufferSize += valueSize;
-            partNo++;
-            offset = getOffsetOfOptionWithId(11, partNo);
+            bufferSize += indexValueSizes[index];
+            index++;
         }
 
         byte[] buffer = new byte[bufferSize];
+        int bufferOffset = 0;
 
-        partNo=0;
-        offset = getOffsetOfOptionWithId(11, partNo);
-        int valueSize = getValueSizeOfOptionWithOffset(offset);
-        byte[] data = getValueOfOptionWithOffset(offset);
-
-        while (data != null) {
-            if (partNo>0) {
+        for (int i = first; i < index; i++) {
+            if (i>first) {
                 buffer[bufferOffset]='/';
                 bufferOffset++;
             }
-            partNo++;
-            Util.copyData(data, 0, buffer,   bufferOffset, valueSize);
-            bufferOffset += valueSize;
-
-            offset = getOffsetOfOptionWithId(11, partNo);
-            data = null;
-
-            if (offset>=0) {
-                valueSize = getValueSizeOfOptionWithOffset(offset);
-                data = getValueOfOptionWithOffset(offset);
-            }
+            Util.copyData(options, optionOffset+indexValueOffsets[i], buffer, bufferOffset, indexValueSizes[i]);
+            bufferOffset += indexValueSizes[i];
         }
 
         return buffer;
@@ -199,17 +272,19 @@ public class Message {
         // find start offsets of the 'enclosing' options left and right of the one to insert
         // special case: inserting at the beginning: offsetRightOption = 0
         // special case: inserting at the end: offsetRightOption = optionArraySize (i.e. points behind the array)
+        // offsets below are relative to optionOffset, base translates them into the options array
+        int base = optionOffset;
         int offsetRightOption = 0;
         int idRightOption = 0;
         int idLeftOption = 0;
 
         while(offsetRightOption < optionArraySize) { //if the loop is not left by a break, the option has to be inserted at the end
-            idRightOption = idOfOptionWithOffset(options, offsetRightOption, idRightOption);
+            idRightOption = idOfOptionWithOffset(options, base+offsetRightOption, idRightOption);
             if(idRightOption > id) {   //insertion point found
                 break;
             }
             idLeftOption = idRightOption;
-            offsetRightOption = findOffsetOfNextOption(options, offsetRightOption);
+            offsetRightOption = findOffsetOfNextOption(options, base+offsetRightOption) - base;
         }
 
 
@@ -233,7 +308,7 @@ public class Message {
         //only if a next option exists
         if(offsetRightOption != optionArraySize) {
             //get the old field size for the next option
-            deltaFieldSizeRightOption = optionExtendedDeltaFieldSize(options, offsetRightOption);
+            deltaFieldSizeRightOption = optionExtendedDeltaFieldSize(options, base+offsetRightOption);
             //recalculate delta field size for next option
             deltaRightOptionNew = idRightOption - id;
             deltaFieldSizeRightOptionNew = getExtendedOptionFieldSizeFor(deltaRightOptionNew);
@@ -254,7 +329,7 @@ public class Message {
 
         //9. copy options until insertion point to new array
         if(offsetRightOption>0) {
-            Util.copyData(options, 0, optionsNew, 0, offsetRightOption);
+            Util.copyData(options, base, optionsNew, 0, offsetRightOption);
         }
 
         int currentOffset = offsetRightOption;	//next position to read from the old options where no additional option is present. points now to the header byte of the next option
@@ -299,7 +374,7 @@ public class Message {
         if(offsetRightOption != optionArraySize) {
             //13. write header of next option with adjusted delta
             //length stays constant, delta is erased
-            optionsNew[currentOffsetNew] = (byte) (options[currentOffset] & 0x0F);
+            optionsNew[currentOffsetNew] = (byte) (options[base+currentOffset] & 0x0F);
 
             //write recalculated delta to the next option
             if(deltaFieldSizeRightOptionNew == 1) {
@@ -321,59 +396,109 @@ public class Message {
 
             //14. copy rest of array (= next option's extended value length field, next option's value, all subsequent options)
             int restLength = optionArraySize - currentOffset;
-            Util.copyData(options, currentOffset, optionsNew, currentOffsetNew, restLength);
+            Util.copyData(options, base+currentOffset, optionsNew, currentOffsetNew, restLength);
         }
 
         //15. replace old options by new
         options = optionsNew;
+        optionOffset = 0;
         optionArraySize = optionArraySizeNew;
+        indexOptions();
     }
 
     public int getOffsetOfOptionWithId(int wantedOptionId, int matchNumber) {
-        int currentOptionOffset = 0;
-        int currentDelta = 0;
-        while(currentOptionOffset < optionArraySize) {
-            int currentOptionId = idOfOptionWithOffset(options, currentOptionOffset, currentDelta);
-            if(currentOptionId == wantedOptionId) {     //first of the options has been found. iterate them until the right match number is found
-                for(int i = 0; i<matchNumber; i++) {
-                    currentOptionOffset = findOffsetOfNextOption(options, currentOptionOffset);
-                    if(currentOptionOffset == optionArraySize || (options[currentOptionOffset] & 0xF0) != 0x00) {
-                        return -1;  //array length has been exceeded or the delta is not 0, i.e. an option with an higher id was found
-                    }
-                }
-                return currentOptionOffset;
-            }
-            if(currentOptionId > wantedOptionId) {
-                return -1;
-            }
-            currentDelta = currentOptionId;
-            currentOptionOffset = findOffsetOfNextOption(options, currentOptionOffset);
+        int index = getIndexOfOptionWithId(wantedOptionId, matchNumber);
+        if (index < 0)
+            return -1;
+        return indexOffsets[index];
+    }
+
+    /**
+     * Returns the position of the matchNumber-th option with the given number in the option index, or -1.
+     */
+    public int getIndexOfOptionWithId(int wantedOptionId, int matchNumber) {
+        // binary search for the first entry with a number >= wantedOptionId
+        int low = 0;
+        int high = optionCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (indexNumbers[middle] < wantedOptionId)
+                low = middle + 1;
+            else
+                high = middle;
         }
+
+        int index = low + matchNumber;
+        if (index < optionCount && indexNumbers[index] == wantedOptionId)
+            return index;
         return -1;
     }
 
+    public final int getOptionCount() {
+        return optionCount;
+    }
+
+    public final int getIdOfOptionWithIndex(int index) {
+        return indexNumbers[index];
+    }
+
+    /**
+     * Returns the position of the value of the index-th option inside the options array, see
+     * getValueOffsetOfOptionWithOffset.
+     */
+    public final int getValueOffsetOfOptionWithIndex(int index) {
+        return optionOffset + indexValueOffsets[index];
+    }
+
+    public final int getValueSizeOfOptionWithIndex(int index) {
+        return indexValueSizes[index];
+    }
+
+    /**
+     * Returns the value of the index-th option as unsigned integer in network byte order, see
+     * draft-ietf-core-coap-18, 3.2. Values longer than 4 bytes are truncated to their last 4 bytes.
+     */
+    public final int getUintValueOfOptionWithIndex(int index) {
+        int offset = getValueOffsetOfOptionWithIndex(index);
+        int size = indexValueSizes[index];
+        int value = 0;
+        for (int i = 0; i < size; i++)
+            value = (value << 8) | (options[offset + i] & 0xFF);
+        return value;
+    }
+
     public byte[] getValueOfOptionWithOffset(int offset) {
-        int valueSize = getValueSizeOfOptionWithOffset(options, offset);
-        int headerSize = headerSizeOfOptionWithOffset(options, offset);
-        offset += headerSize;
+        int valueSize = getValueSizeOfOptionWithOffset(offset);
         byte[] value = new byte[valueSize];
         if(valueSize>0) {
-            Util.copyData(options, offset, value, 0, valueSize);
+            Util.copyData(options, getValueOffsetOfOptionWithOffset(offset), value, 0, valueSize);
         }
         return value;
     }
 
+    /**
+     * Returns the position of the option value inside the options array. Unlike getValueOfOptionWithOffset
+     * this does not copy the value, so it can be used on the receive path without allocating.
+     */
+    public int getValueOffsetOfOptionWithOffset(int offset) {
+        offset += optionOffset;
+        return offset + headerSizeOfOptionWithOffset(options, offset);
+    }
+
     public int getValueSizeOfOptionWithOffset(int offset) {
-        return getValueSizeOfOptionWithOffset(options, offset);
+        return getValueSizeOfOptionWithOffset(options, optionOffset+offset);
     }
     
         public void removeOptionWithOffset(int offset) {
+        // offsets below are relative to optionOffset, base translates them into the options array
+        int base = optionOffset;
+
         //1. get delta of this option
-        int delta = idOfOptionWithOffset(options, offset, 0);	//this method with 0 as previous delta gives just the delta of this option
+        int delta = idOfOptionWithOffset(options, base+offset, 0);	//this method with 0 as previous delta gives just the delta of this option
 
         //2. get length of the block to remove
-        int optionSize = headerSizeOfOptionWithOffset(options, offset)
-                + getValueSizeOfOptionWithOffset(options, offset);
+        int optionSize = headerSizeOfOptionWithOffset(options, base+offset)
+                + getValueSizeOfOptionWithOffset(options, base+offset);
 
         //3. recalculate next option's new delta value
         int offsetRightOption = offset + optionSize;	//same as findOffsetOfNextOption(options, offset);
@@ -384,8 +509,8 @@ public class Message {
         int deltaFieldSizeDifferenceRightOption = 0;
         if(offsetRightOption != optionArraySize) {
             //get the old field size for the next option
-            deltaRightOption = idOfOptionWithOffset(options, offsetRightOption, 0);	//this method with 0 as previous delta gives just the delta of this option
-            deltaFieldSizeRightOption = optionExtendedDeltaFieldSize(options, offsetRightOption);
+            deltaRightOption = idOfOptionWithOffset(options, base+offsetRightOption, 0);	//this method with 0 as previous delta gives just the delta of this option
+            deltaFieldSizeRightOption = optionExtendedDeltaFieldSize(options, base+offsetRightOption);
             //recalculate delta field size for next option
             deltaRightOptionNew = delta + deltaRightOption;
             deltaFieldSizeRightOptionNew = getExtendedOptionFieldSizeFor(deltaRightOptionNew);
@@ -403,7 +528,7 @@ public class Message {
 
         //8. copy old option array to the start of the option to remove
         if (offset>0)
-            Util.copyData(options, 0, optionsNew, 0, offset);
+            Util.copyData(options, base, optionsNew, 0, offset);
         int offsetNew = offset;
         offset += optionSize;
 
@@ -411,7 +536,7 @@ public class Message {
         if(offsetRightOption != optionArraySize) {
             //9. write new delta for next option
             //length stays constant, delta is erased
-            optionsNew[offsetNew] = (byte) (options[offset] & 0x0F);
+            optionsNew[offsetNew] = (byte) (options[base+offset] & 0x0F);
 
             //write recalculated delta to the next option
             if(deltaFieldSizeRightOptionNew == 1) {
@@ -433,11 +558,12 @@ public class Message {
 
             //10. copy rest of the array
             int restLength = optionArraySizeNew - offsetNew;
-            Util.copyData(options, offset, optionsNew, offsetNew, restLength);
+            Util.copyData(options, base+offset, optionsNew, offsetNew, restLength);
         }
         options = optionsNew;
+        optionOffset = 0;
         optionArraySize = optionArraySizeNew;
-
+        indexOptions();
     }
 
     public void removeOptionWithId(int id, int matchNumber) {
@@ -457,11 +583,11 @@ public class Message {
     }
     
     public int findOffsetOfNextOption(int offset) {
-        return findOffsetOfNextOption(this.options, offset);
+        return findOffsetOfNextOption(this.options, optionOffset+offset) - optionOffset;
     }
     
     public int idOfOptionWithOffset(int offset, int currentDelta) {
-    	return idOfOptionWithOffset(this.options, offset, currentDelta);
+    	return idOfOptionWithOffset(this.options, optionOffset+offset, currentDelta);
     }
 
     public void encodeTo(byte[] buffer, int offset) {
@@ -471,19 +597,19 @@ public class Message {
 
         byte tokenLength = this.getTokenLength();
         if (tokenLength > 0) {
-            Util.copyData(token,0, buffer, offset+iOffset, tokenLength);
+            Util.copyData(token, tokenOffset, buffer, offset+iOffset, tokenLength);
             iOffset += tokenLength;
         }
 
         if (optionArraySize>0) {
-            Util.copyData(options, 0, buffer, offset+iOffset, optionArraySize);
+            Util.copyData(options, optionOffset, buffer, offset+iOffset, optionArraySize);
             iOffset += optionArraySize;
         }
 
         if (this.payloadLength!=0) {
             buffer[offset+iOffset] = (byte) 0xFF;
             iOffset++;
-            Util.copyData(this.payload,0, buffer, offset+iOffset, this.payloadLength);
+            Util.copyData(this.payload, this.payloadOffset, buffer, offset+iOffset, this.payloadLength);
         }
     }
     
@@ -494,15 +620,29 @@ public class Message {
     // -2: Currently unsupported feature
 
     public byte decode(byte[] inBuffer, int offset, int len) {
-        //##if LOGGING
-        Logger.appendString(csr.s2b("CoAPDecode :: ENTER DECODE"));
-        Logger.flush(Mote.INFO);
-        //##endif
+        return decode(inBuffer, offset, len, false);
+    }
+
+    //
+    // inPlace: if true, token, options and payload are not copied but refer to inBuffer, so decoding
+    // allocates nothing. The caller has to keep inBuffer untouched as long as the message is in use
+    // (see copyFrom to keep a message beyond that).
 
+    public byte decode(byte[] inBuffer, int offset, int len, boolean inPlace) {
         int inOffset = offset;
         int endLen = offset+len;
 
-        payloadLength = 0;
+        token = null;
+        tokenOffset = 0;
+        clearOptions();
+        clearPayload();
+        roundCounter = 0;
+
+        // shorter than the header: version 0, so that it is ignored
+        if (len < 4) {
+            Util.fillData(header, 0, 4, 0);
+            return decodeError(Trace.DECODE_HEADER, 0);
+        }
 
         Util.copyData(inBuffer, offset, header, 0, 4);
 
@@ -511,23 +651,23 @@ public class Message {
         // Read token
         byte tokenLength = getTokenLength();
 		
-		if(tokenLength > 8) {
-			return -1;
+		if(tokenLength > MAX_TOKEN_LENGTH) {
+			return decodeError(Trace.DECODE_TOKEN, 0);
 		}
 		
-		if(inOffset == -1) {
-			return -1;
+		if(inOffset + tokenLength > endLen) {
+			return decodeError(Trace.DECODE_TOKEN, 4);
 		}
 
-        //##if LOGGING
-        Logger.appendString(csr.s2b("CoAPDecode :: token len"));
-        Logger.appendInt(tokenLength);
-        Logger.flush(Mote.INFO);
-        //##endif
-
         if (tokenLength>0) {
-            token = new byte[tokenLength];
-            Util.copyData(inBuffer, inOffset, token, 0, tokenLength);
+            if (inPlace) {
+                token = inBuffer;
+                tokenOffset = inOffset;
+            }
+            else {
+                token = new byte[tokenLength];
+                Util.copyData(inBuffer, inOffset, token, 0, tokenLength);
+            }
         }
 
         inOffset += tokenLength;
@@ -536,76 +676,62 @@ public class Message {
         if (inOffset >= endLen) // Zero length Message, zero options
             return 0;
 
-        //##if LOGGING
-        Logger.appendString(csr.s2b("CoAPDecode :: start reading options "));
-        Logger.flush(Mote.INFO);
-        //##endif
-
         // Check if payload marker or options
-        int optionOffset = inOffset;
-        inOffset = jumpOverOptions(inBuffer, inOffset, endLen);
+        int optionStart = inOffset;
+        inOffset = jumpOverOptions(inBuffer, inOffset, endLen);	//also builds the option index
 		
 		if(inOffset == -1) {
-			return -1;
+			return decodeError(Trace.DECODE_OPTIONS, optionStart - offset);
 		}
 
-        //##if LOGGING
-        Logger.appendString(csr.s2b("CoAPDecode :: new offset"));
-        Logger.appendInt(inOffset);
-        Logger.appendString(csr.s2b("CoAPDecode :: endlen"));
-        Logger.appendInt(endLen);
-
-        Logger.flush(Mote.INFO);
-        //##endif
-
-        optionArraySize = inOffset - optionOffset; //may be 0 if no options are given
-        options = new byte[optionArraySize];
-        if(optionArraySize > 0) {
-            Util.copyData(inBuffer, optionOffset, options, 0, optionArraySize);
+        optionArraySize = inOffset - optionStart; //may be 0 if no options are given
+        if (inPlace) {
+            options = inBuffer;
+            this.optionOffset = optionStart;
+        }
+        else {
+            options = new byte[optionArraySize];
+            if(optionArraySize > 0) {
+                Util.copyData(inBuffer, optionStart, options, 0, optionArraySize);
+            }
         }
-
-        //##if LOGGING
-        Logger.appendString(csr.s2b("CoAPDecode :: end reading options "));
-        Logger.flush(Mote.INFO);
-        //##endif
 
         if (inOffset == endLen) { // Zero length Message
-            //##if LOGGING
-            Logger.appendString(csr.s2b("CoAPDecode :: no payload  "));
-            Logger.flush(Mote.INFO);
-            //##endif
             return 0;
         }
 		
         if (inBuffer[inOffset] == (byte) 0xFF)    {
 			inOffset++;
             if(inOffset == endLen) {	//protocol error: there is no payload though the marker indicates
-				//##if LOGGING
-				Logger.appendString(csr.s2b("CoAPDecode :: protocol error  "));
-				Logger.flush(Mote.INFO);
-				//##endif
-				return -1;
+				return decodeError(Trace.DECODE_PAYLOAD, inOffset - 1 - offset);
 			}
 
 			// Payload
 			payloadLength = endLen-inOffset;
-			payload = new byte[payloadLength];
-			Util.copyData(inBuffer, inOffset, payload, 0, payloadLength);
+			if (inPlace) {
+				payload = inBuffer;
+				payloadOffset = inOffset;
+			}
+			else {
+				payload = new byte[payloadLength];
+				Util.copyData(inBuffer, inOffset, payload, 0, payloadLength);
+			}
         }
 		else {
 			inOffset++;
 			if(inOffset < endLen) { //protocol error: there is payload though there is no marker
-				//##if LOGGING
-				Logger.appendString(csr.s2b("CoAPDecode :: protocol error  "));
-				Logger.flush(Mote.INFO);
-				//##endif
-				return -1;
-
+				return decodeError(Trace.DECODE_PAYLOAD, inOffset - 1 - offset);
 			}
 		}
         return 0;
     }
 
+    // Traces why decode rejects the message, position is the offset of the error in the message
+    private byte decodeError(byte reason, int position) {
+        Trace.record(Trace.DECODE_ERROR, reason, getMessageId(), position, 0);
+        return -1;
+    }
+
     public final int getMessageLength() {
         int len=4+getTokenLength();
 
@@ -629,19 +755,71 @@ public class Message {
         return tempPacket;
     }
 
-    private static int jumpOverOptions(byte[] inBuffer, int offset, int len) {
+    // Walks over the options starting at offset up to the payload marker or len and builds the option index
+    // on the way, with offsets relative to offset. Returns the offset behind the last option or -1 on a
+    // protocol error.
+    private int jumpOverOptions(byte[] inBuffer, int offset, int len) {
         int nextOptionOffset = offset;
+        int currentId = 0;
+        optionCount = 0;
         while(nextOptionOffset < len && inBuffer[nextOptionOffset] != (byte) 0xFF) {
             //  checking for protocol violation -- one of the nibbles is F but it's not the payload marker
             //    check belongs only here since the first time parsing of a received message happens here
-            if( (inBuffer[offset] & 0x0F) == 0x0F || (inBuffer[offset] & 0xF0) == 0xF0 ) {
+            if( (inBuffer[nextOptionOffset] & 0x0F) == 0x0F || (inBuffer[nextOptionOffset] & 0xF0) == 0xF0 ) {
+                return -1;
+            }
+
+            if (indexNumbers == null || optionCount == indexNumbers.length)
+                growOptionIndex();
+
+            currentId = idOfOptionWithOffset(inBuffer, nextOptionOffset, currentId);
+            int valueOffset = nextOptionOffset + headerSizeOfOptionWithOffset(inBuffer, nextOptionOffset);
+            int valueSize = getValueSizeOfOptionWithOffset(inBuffer, nextOptionOffset);
+
+            indexNumbers[optionCount] = currentId;
+            indexOffsets[optionCount] = nextOptionOffset - offset;
+            indexValueOffsets[optionCount] = valueOffset - offset;
+            indexValueSizes[optionCount] = valueSize;
+            optionCount++;
+
+            nextOptionOffset = valueOffset + valueSize;
+            if (nextOptionOffset > len) {	//option exceeds the message
                 return -1;
             }
-            nextOptionOffset = findOffsetOfNextOption(inBuffer, nextOptionOffset);
         }
         return nextOptionOffset;
     }
 
+    // Rebuilds the option index after the options have been changed
+    private void indexOptions() {
+        jumpOverOptions(options, optionOffset, optionOffset+optionArraySize);
+    }
+
+    // Doubles the capacity of the option index. Only happens for messages with more options than seen so far,
+    // a reused message (receive message, pooled requests) keeps its index arrays.
+    private void growOptionIndex() {
+        int size = INITIAL_INDEX_SIZE;
+        if (indexNumbers != null)
+            size = indexNumbers.length * 2;
+
+        int[] numbers = new int[size];
+        int[] offsets = new int[size];
+        int[] valueOffsets = new int[size];
+        int[] valueSizes = new int[size];
+
+        for (int i = 0; i < optionCount; i++) {
+            numbers[i] = indexNumbers[i];
+            offsets[i] = indexOffsets[i];
+            valueOffsets[i] = indexValueOffsets[i];
+            valueSizes[i] = indexValueSizes[i];
+        }
+
+        indexNumbers = numbers;
+        indexOffsets = offsets;
+        indexValueOffsets = valueOffsets;
+        indexValueSizes = valueSizes;
+    }
+
     private static int findOffsetOfNextOption(byte[] inBuffer, int offset) {
         int headerSize = headerSizeOfOptionWithOffset(inBuffer, offset);
         int valueSize = getValueSizeOfOptionWithOffset(inBuffer, offset);
@@ -681,7 +859,7 @@ public class Message {
         else {
             offset += 1 + optionExtendedDeltaFieldSize(inBuffer, offset);
             if(optionLength == 13) {
-                return inBuffer[offset] + 13;
+                return (inBuffer[offset] & 0xFF) + 13;
             }
             return Util.get16(inBuffer, offset) + 269; //optionLength == 14
         }
@@ -694,17 +872,52 @@ public class Message {
         else {
             offset += 1;
             if(optionDelta == 13) {
-                return currentDelta + inBuffer[offset] + 13;
+                return currentDelta + (inBuffer[offset] & 0xFF) + 13;
             }
             return currentDelta + Util.get16(inBuffer, offset) + 269;  //optionDelta == 14
         }
     }
 
-    private static int getExtendedOptionFieldSizeFor(int input) {
+    static int getExtendedOptionFieldSizeFor(int input) {
         if(input<13)
             return 0;
         else if(input >= 13 && input < 269)
             return 1;
         return 2;    //input >= 269
     }
+
+    // Writes the header (delta and length, including extended fields) of an option starting at offset and
+    // returns the offset behind it, which is where the value goes. Same encoding as in insertOption.
+    static int writeOptionHeader(byte[] buffer, int offset, int delta, int valueSize) {
+        int firstByte = offset;
+        offset++;
+
+        int extendedDeltaFieldSize = getExtendedOptionFieldSizeFor(delta);
+        if(extendedDeltaFieldSize == 1) {
+            buffer[firstByte] = (byte) (13 << 4);
+            buffer[offset] = (byte)(delta-13);
+        }
+        else if(extendedDeltaFieldSize == 2) {
+            buffer[firstByte] = (byte) (14 << 4);
+            Util.set16(buffer, offset, delta-269);
+        }
+        else {
+            buffer[firstByte] = (byte) (delta << 4);
+        }
+        offset += extendedDeltaFieldSize;
+
+        int extendedLengthFieldSize = getExtendedOptionFieldSizeFor(valueSize);
+        if(extendedLengthFieldSize == 1) {
+            buffer[firstByte] += 13;
+            buffer[offset] = (byte)(valueSize-13);
+        }
+        else if(extendedLengthFieldSize == 2) {
+            buffer[firstByte] += 14;
+            Util.set16(buffer, offset, valueSize-269);
+        }
+        else {
+            buffer[firstByte] += valueSize;
+        }
+        return offset + extendedLengthFieldSize;
+    }
 }
\ No newline at end of file
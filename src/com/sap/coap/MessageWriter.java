@@ -0,0 +1,313 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.iris.*;
+import com.ibm.saguaro.mrv6.*;
+
+import com.sap.coap.Message;
+
+/**
+ * Builds an outgoing CoAP message and writes it straight into the buffer of a Packet.
+ *
+ * Header, token, options and payload are only recorded (values by reference, integer options by value) while
+ * the message is built, the encoded length is tracked incrementally. encodeTo then writes the whole message in
+ * one pass, so a response costs neither an options array nor an intermediate copy. Options have to be added in
+ * ascending order of their number, as their deltas are computed on the fly.
+ *
+ * Referenced token, option values and payload must stay unchanged until the message has been encoded.
+ *
+ * An option that cannot be added, beyond MAX_OPTIONS or out of order, fails the message: it is turned into a
+ * 5.00 (Internal Server Error) without options and payload, and later options, payload and code are ignored.
+ * So a response never goes out with an option silently missing, whichever resource added it.
+ */
+public final class MessageWriter {
+    @Immutable public static final byte MAX_OPTIONS = 8;
+
+    private byte[] header = new byte[4];
+    private byte[] token;
+    private int tokenOffset;
+
+    private int numOptions;
+    private int lastOptionNumber;
+    private int[] optionNumbers = new int[MAX_OPTIONS];
+    private int[] optionLengths = new int[MAX_OPTIONS];
+    // either a value given by reference (buffer and offset) or an unsigned integer value (buffer is null)
+    private Object[] optionBuffers = new Object[MAX_OPTIONS];
+    private int[] optionOffsets = new int[MAX_OPTIONS];
+
+    private byte[] payload;
+    private int payloadOffset;
+    private int payloadLength;
+
+    // length of the encoded message so far
+    private int length;
+    // an option could not be added, see fail
+    private boolean failed;
+
+    /**
+     * Starts a new message, everything added before is discarded.
+     */
+    public void start(byte type, byte code, int msgid, byte[] inToken, int inTokenOffset, byte tokenLength) {
+        header[0] = (byte) ((0x40 | (type << 4)) | tokenLength);
+        header[1] = code;
+        Util.set16be(header, 2, msgid);
+        token = inToken;
+        tokenOffset = inTokenOffset;
+
+        numOptions = 0;
+        lastOptionNumber = 0;
+        payload = null;
+        payloadOffset = 0;
+        payloadLength = 0;
+        length = 4 + tokenLength;
+        failed = false;
+    }
+
+    /**
+     * Starts a response (or notification) to request, i.e. with the token of request.
+     */
+    public void start(byte type, byte code, int msgid, Message request) {
+        start(type, code, msgid, request.token, request.tokenOffset, request.getTokenLength());
+    }
+
+    /**
+     * Adds an option whose value is stored in buffer. Returns false, and fails the message, if the option is
+     * not in ascending order or if there are already MAX_OPTIONS options.
+     */
+    public boolean addOption(int number, byte[] buffer, int offset, int valueLength) {
+        if (failed)
+            return false;
+        if (numOptions == MAX_OPTIONS || number < lastOptionNumber) {
+            fail();
+            return false;
+        }
+
+        optionNumbers[numOptions] = number;
+        optionBuffers[numOptions] = buffer;
+        optionOffsets[numOptions] = offset;
+        optionLengths[numOptions] = valueLength;
+        numOptions++;
+
+        length += 1 + Message.getExtendedOptionFieldSizeFor(number - lastOptionNumber)
+                + Message.getExtendedOptionFieldSizeFor(valueLength) + valueLength;
+        lastOptionNumber = number;
+        return true;
+    }
+
+    /**
+     * Adds an option with an unsigned integer value (e.g. Observe, Block2), encoded in as few bytes as
+     * possible, see draft-ietf-core-coap-18, 3.2.
+     */
+    public boolean addUintOption(int number, int value) {
+        return addOption(number, null, value, uintLength(value));
+    }
+
+    /**
+     * Changes type and message id of the message started, e.g. to send a deferred reply as separate response.
+     */
+    public void setTypeAndMessageId(byte type, int msgid) {
+        header[0] = (byte) ((header[0] & 0xCF) | (type << 4));
+        Util.set16be(header, 2, msgid);
+    }
+
+    public void setCode(byte code) {
+        if (!failed)
+            header[1] = code;
+    }
+
+    /**
+     * Whether an option could not be added, the message is then a 5.00 without options and payload.
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    private void fail() {
+        failed = true;
+        header[1] = Message.createResponseCode((byte) 5, (byte) 0);
+        numOptions = 0;
+        lastOptionNumber = 0;
+        payload = null;
+        payloadOffset = 0;
+        payloadLength = 0;
+        length = 4 + (header[0] & 0x0F);
+    }
+
+    public byte getCode() {
+        return header[1];
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    public void setPayload(byte[] buffer, int offset, int inPayloadLength) {
+        if (failed)
+            return;
+        if (payloadLength != 0)
+            length -= 1 + payloadLength;
+
+        payload = buffer;
+        payloadOffset = offset;
+        payloadLength = inPayloadLength;
+
+        if (payloadLength != 0)
+            length += 1 + payloadLength;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the offset, from the start of the encoded message, of the value of the first option with number,
+     * or -1 if there is none. Its length is getOptionLength(number).
+     */
+    public int getOptionOffset(int number) {
+        int offset = 4 + (header[0] & 0x0F);
+        int previousNumber = 0;
+        for (int i = 0; i < numOptions; i++) {
+            offset += 1 + Message.getExtendedOptionFieldSizeFor(optionNumbers[i] - previousNumber)
+                    + Message.getExtendedOptionFieldSizeFor(optionLengths[i]);
+            if (optionNumbers[i] == number)
+                return offset;
+            offset += optionLengths[i];
+            previousNumber = optionNumbers[i];
+        }
+        return -1;
+    }
+
+    public int getOptionLength(int number) {
+        for (int i = 0; i < numOptions; i++) {
+            if (optionNumbers[i] == number)
+                return optionLengths[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the 4 byte header and the token of a message to buffer and returns the offset after them, for
+     * messages whose options and payload have been encoded before, see CoapServer.
+     */
+    public static int writeHeader(byte[] buffer, int offset, byte type, byte code, int msgid, byte[] token, int tokenOffset, int tokenLength) {
+        buffer[offset] = (byte) ((0x40 | (type << 4)) | tokenLength);
+        buffer[offset + 1] = code;
+        Util.set16be(buffer, offset + 2, msgid);
+        if (tokenLength > 0)
+            Util.copyData(token, tokenOffset, buffer, offset + 4, tokenLength);
+        return offset + 4 + tokenLength;
+    }
+
+    /**
+     * Writes the message to buffer, which needs getLength() bytes of space at offset. Returns the number of
+     * bytes written.
+     */
+    public int encodeTo(byte[] buffer, int offset) {
+        int start = offset;
+
+        Util.copyData(header, 0, buffer, offset, 4);
+        offset += 4;
+
+        int tokenLength = header[0] & 0x0F;
+        if (tokenLength > 0) {
+            Util.copyData(token, tokenOffset, buffer, offset, tokenLength);
+            offset += tokenLength;
+        }
+
+        int previousNumber = 0;
+        for (int i = 0; i < numOptions; i++) {
+            int valueLength = optionLengths[i];
+            offset = Message.writeOptionHeader(buffer, offset, optionNumbers[i] - previousNumber, valueLength);
+            previousNumber = optionNumbers[i];
+
+            byte[] value = (byte[]) optionBuffers[i];
+            if (value != null) {
+                if (valueLength > 0)
+                    Util.copyData(value, optionOffsets[i], buffer, offset, valueLength);
+            }
+            else {
+                // unsigned integer, network byte order
+                int uint = optionOffsets[i];
+                for (int j = valueLength - 1; j >= 0; j--) {
+                    buffer[offset + j] = (byte) uint;
+                    uint >>>= 8;
+                }
+            }
+            offset += valueLength;
+        }
+
+        if (payloadLength != 0) {
+            buffer[offset] = (byte) 0xFF;
+            offset++;
+            Util.copyData(payload, payloadOffset, buffer, offset, payloadLength);
+            offset += payloadLength;
+        }
+        return offset - start;
+    }
+
+    /**
+     * Creates a packet of the right size for the message and encodes the message into it, see
+     * Message.prepareResponseForSourcePacket.
+     */
+    public Packet prepareResponseForSourcePacket(int inDstPort, byte[] inDstAddr, byte[] inSrcAddr, int srcPort) {
+        Packet tempPacket = Mac.getPacket();
+        tempPacket.release();
+        Address.copyAddress(inDstAddr, 0, tempPacket.dstaddr, 0);
+        Address.copyAddress(inSrcAddr, 0, tempPacket.srcaddr, 0);
+        tempPacket.create(inDstPort, srcPort, length);
+        encodeTo(tempPacket.payloadBuf, tempPacket.payloadOff);
+        return tempPacket;
+    }
+
+    public static int uintLength(int value) {
+        if (value == 0)
+            return 0;
+        if ((value & 0xFFFFFF00) == 0)
+            return 1;
+        if ((value & 0xFFFF0000) == 0)
+            return 2;
+        if ((value & 0xFF000000) == 0)
+            return 3;
+        return 4;
+    }
+}
@@ -0,0 +1,139 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * Counters and gauges of the server, cheap enough to stay on in the field: one int per metric, updated on the
+ * hot paths of CoapServer and served by MetricsResource. Counters count since boot and wrap at 2^32, gauges
+ * hold the current value or a peak.
+ *
+ * The encoding is a CBOR map (RFC 7049) from the metric number to its value as unsigned integer, so a gateway
+ * can read single metrics without knowing all of them. The numbers below are part of that format and must not
+ * change, new metrics get new numbers.
+ */
+public final class Metrics {
+    // counters
+    @Immutable public static final byte PACKETS_IN = 0;
+    @Immutable public static final byte PACKETS_OUT = 1;
+    // messages that could not be parsed or have an unknown version
+    @Immutable public static final byte DECODE_FAILURES = 2;
+    // sent responses with a 4.xx / 5.xx code
+    @Immutable public static final byte CLIENT_ERRORS = 3;
+    @Immutable public static final byte SERVER_ERRORS = 4;
+    // retransmitted CONs, and CONs given up after MAX_RETRANSMIT
+    @Immutable public static final byte RETRANSMISSIONS = 5;
+    @Immutable public static final byte RETRANSMIT_TIMEOUTS = 6;
+    // processing rounds, packets sent in them and rounds that hit the limit of packets per round
+    @Immutable public static final byte ROUNDS = 7;
+    @Immutable public static final byte ROUND_SENDS = 8;
+    @Immutable public static final byte ROUNDS_SATURATED = 9;
+
+    // gauges
+    // packets a round may send, ROUND_SENDS / (ROUNDS * SEND_LIMIT) is the utilization of the rounds
+    @Immutable public static final byte SEND_LIMIT = 10;
+    @Immutable public static final byte PENDING_REQUESTS = 11;
+    @Immutable public static final byte PENDING_REQUESTS_PEAK = 12;
+    @Immutable public static final byte OBSERVERS = 13;
+    @Immutable public static final byte OBSERVERS_PEAK = 14;
+
+    // counters
+    // notifications too large for the notification buffer of CoapServer, their observers got a 5.00 and were removed
+    @Immutable public static final byte NOTIFICATIONS_TOO_LARGE = 15;
+
+    @Immutable public static final byte NUM_METRICS = 16;
+
+    // a map header and per metric a key byte and a value of at most 5 bytes
+    @Immutable public static final byte MAX_ENCODED_SIZE = 1 + NUM_METRICS * 6;
+
+    private static int[] values = new int[NUM_METRICS];
+
+    public static void count(int metric) {
+        values[metric]++;
+    }
+
+    public static void set(int metric, int value) {
+        values[metric] = value;
+    }
+
+    /**
+     * Raises the gauge metric to value if that is higher.
+     */
+    public static void max(int metric, int value) {
+        if (value > values[metric])
+            values[metric] = value;
+    }
+
+    public static int get(int metric) {
+        return values[metric];
+    }
+
+    /**
+     * Writes all metrics to buffer, which needs MAX_ENCODED_SIZE bytes of space at offset, and returns the
+     * number of bytes written.
+     */
+    public static int encode(byte[] buffer, int offset) {
+        int start = offset;
+        // map, NUM_METRICS < 24 pairs
+        buffer[offset++] = (byte) (0xA0 | NUM_METRICS);
+        for (int i = 0; i < NUM_METRICS; i++) {
+            // keys < 24 fit into the initial byte
+            buffer[offset++] = (byte) i;
+            offset = encodeUint(values[i], buffer, offset);
+        }
+        return offset - start;
+    }
+
+    // Writes value as unsigned CBOR integer in its shortest form
+    private static int encodeUint(int value, byte[] buffer, int offset) {
+        if (value >= 0 && value < 24) {
+            buffer[offset] = (byte) value;
+            return offset + 1;
+        }
+        if (value >= 0 && value < 0x100) {
+            buffer[offset] = 0x18;
+            buffer[offset + 1] = (byte) value;
+            return offset + 2;
+        }
+        if (value >= 0 && value < 0x10000) {
+            buffer[offset] = 0x19;
+            Util.set16be(buffer, offset + 1, value);
+            return offset + 3;
+        }
+        buffer[offset] = 0x1A;
+        Util.set16be(buffer, offset + 1, value >>> 16);
+        Util.set16be(buffer, offset + 3, value);
+        return offset + 5;
+    }
+}
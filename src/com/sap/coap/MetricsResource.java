@@ -0,0 +1,66 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.ArraySource;
+import com.sap.coap.Block2;
+import com.sap.coap.Message;
+import com.sap.coap.Metrics;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Resource;
+
+/**
+ * /metrics, the Metrics of the server as CBOR (Content-Format 60). A snapshot is taken for block 0, further
+ * blocks of a block-wise transfer are served from it. Every snapshot gets a new ETag, a client still reading an
+ * older one is restarted at block 0 of the current one, see Block2.respond, so all blocks belong together.
+ */
+public final class MetricsResource extends Resource {
+    @Immutable private static int CONTENT_FORMAT_CBOR = 60;
+
+    private byte[] snapshot = new byte[Metrics.MAX_ENCODED_SIZE];
+    private ArraySource source = new ArraySource(snapshot, 0, 0);
+    // entity tag of the snapshot, a counter that is never 0 so it is never encoded empty
+    private int etag = 0;
+
+    public byte handleGet(Message request, MessageWriter response) {
+        if (Block2.isFirstBlock(request)) {
+            source.setLength(Metrics.encode(snapshot, 0));
+            etag++;
+            if (etag == 0)
+                etag = 1;
+        }
+        return Block2.respond(request, response, source, etag, CONTENT_FORMAT_CBOR);
+    }
+}
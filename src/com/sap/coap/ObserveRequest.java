@@ -45,13 +45,32 @@ import com.sap.coap.Core;
 import com.sap.coap.Request;
 
 public final class ObserveRequest extends Request {
-	public Timer nextCONTimer;
-    public Timer resendCONTimer;
     public boolean nextMessageAsCON;
-    public int currentRetransmissionMillis;
-    public byte retransmissionCounter;
+    // the registration was a CON that is not acknowledged yet: the first notification goes out as its ACK, or an
+    // empty ACK once deadline is reached without a notification
+    public boolean registrationUnacknowledged;
+    // version of the resource last sent to this observer and when, see CoapServer.setNotificationIntervals
+    public int lastSentVersion;
+    public long lastSentTime;
+    // where the Max-Age value is in conFrame (-1 if there is none), rewritten on retransmission, see CoapServer.writeMaxAge
+    public int maxAgeOffset;
+    public int maxAgeLength;
+    public long maxAgeExpiry;
 	
-	public ObserveRequest(byte[] inDstAddr, int inDstPort, byte[] inSrcAddr, int inSrcPort, Message coap, boolean emptyPayload, boolean emptyOptions) {
-        super(inDstAddr, inDstPort, inSrcAddr, inSrcPort, coap, emptyPayload, emptyOptions);
+	/**
+	 * Creates an empty observer to be kept in RequestPool. Its timers are entries of the timer wheel of
+	 * CoapServer, by its slot in the ObserverRegistry.
+	 */
+	public ObserveRequest(int optionCapacity) {
+        super(optionCapacity);
+    }
+
+    public void init(byte[] inDstAddr, int inDstPort, byte[] inSrcAddr, int inSrcPort, Message coap, boolean emptyPayload, boolean emptyOptions) {
+        super.init(inDstAddr, inDstPort, inSrcAddr, inSrcPort, coap, emptyPayload, emptyOptions);
+        nextMessageAsCON = false;
+        registrationUnacknowledged = false;
+        lastSentVersion = 0;
+        lastSentTime = 0;
+        maxAgeOffset = -1;
     }
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.Message;
+import com.sap.coap.ObserveRequest;
+
+/**
+ * The observers of all resources, kept in a fixed number of slots. Free slots are kept in a free list, and two
+ * chained hash indexes find an observer by the message id of its last confirmable notification (to match ACK and
+ * RST) and by endpoint and token (to match re-registrations and deregistrations) without scanning all slots.
+ * All storage is allocated by the constructor, the slot number of an observer does not change while it is
+ * registered.
+ */
+public final class ObserverRegistry {
+    @Immutable public static final int NONE = -1;
+
+    private ObserveRequest[] slots;
+    private int size = 0;
+
+    private int[] freeSlots;
+    private int numFreeSlots;
+
+    // both indexes have a power of two number of buckets, each holding the first slot of its chain
+    private int bucketMask;
+
+    private int[] messageIdBuckets;
+    private int[] nextByMessageId;
+    private int[] messageIds; // NONE if the observer is not indexed by message id
+
+    private int[] endpointBuckets;
+    private int[] nextByEndpoint;
+    private int[] endpointHashes;
+
+    public ObserverRegistry(int capacity) {
+        slots = new ObserveRequest[capacity];
+
+        freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeSlots[i] = capacity - 1 - i;
+        numFreeSlots = capacity;
+
+        int buckets = 1;
+        while (buckets < capacity)
+            buckets <<= 1;
+        bucketMask = buckets - 1;
+
+        messageIdBuckets = new int[buckets];
+        endpointBuckets = new int[buckets];
+        for (int i = 0; i < buckets; i++) {
+            messageIdBuckets[i] = NONE;
+            endpointBuckets[i] = NONE;
+        }
+
+        nextByMessageId = new int[capacity];
+        messageIds = new int[capacity];
+        nextByEndpoint = new int[capacity];
+        endpointHashes = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the observer in slot, null if the slot is free.
+     */
+    public ObserveRequest get(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Adds an observer that has been initialized with its endpoint and token. Returns its slot, or NONE if all
+     * slots are taken.
+     */
+    public int add(ObserveRequest observer) {
+        if (numFreeSlots == 0)
+            return NONE;
+
+        numFreeSlots--;
+        int slot = freeSlots[numFreeSlots];
+        slots[slot] = observer;
+        size++;
+
+        Message coapMessage = observer.coapMessage;
+        int hash = hashEndpoint(observer.srcaddr, observer.srcport, coapMessage.token, coapMessage.tokenOffset, coapMessage.getTokenLength());
+        endpointHashes[slot] = hash;
+        int bucket = hash & bucketMask;
+        nextByEndpoint[slot] = endpointBuckets[bucket];
+        endpointBuckets[bucket] = slot;
+
+        messageIds[slot] = NONE;
+        return slot;
+    }
+
+    /**
+     * Removes the observer in slot from both indexes and frees the slot. Returns the observer, null if the slot
+     * was free.
+     */
+    public ObserveRequest remove(int slot) {
+        ObserveRequest observer = slots[slot];
+        if (observer == null)
+            return null;
+
+        setMessageId(slot, NONE);
+
+        int bucket = endpointHashes[slot] & bucketMask;
+        if (endpointBuckets[bucket] == slot) {
+            endpointBuckets[bucket] = nextByEndpoint[slot];
+        } else {
+            int i = endpointBuckets[bucket];
+            while (nextByEndpoint[i] != slot)
+                i = nextByEndpoint[i];
+            nextByEndpoint[i] = nextByEndpoint[slot];
+        }
+
+        slots[slot] = null;
+        size--;
+        freeSlots[numFreeSlots] = slot;
+        numFreeSlots++;
+        return observer;
+    }
+
+    /**
+     * Indexes the observer in slot by msgid, the message id of its outstanding confirmable notification,
+     * replacing the previous one. NONE removes it from the index.
+     */
+    public void setMessageId(int slot, int msgid) {
+        if (messageIds[slot] != NONE) {
+            int bucket = messageIds[slot] & bucketMask;
+            if (messageIdBuckets[bucket] == slot) {
+                messageIdBuckets[bucket] = nextByMessageId[slot];
+            } else {
+                int i = messageIdBuckets[bucket];
+                while (nextByMessageId[i] != slot)
+                    i = nextByMessageId[i];
+                nextByMessageId[i] = nextByMessageId[slot];
+            }
+        }
+
+        messageIds[slot] = msgid;
+        if (msgid != NONE) {
+            int bucket = msgid & bucketMask;
+            nextByMessageId[slot] = messageIdBuckets[bucket];
+            messageIdBuckets[bucket] = slot;
+        }
+    }
+
+    /**
+     * Returns the slot of the observer whose outstanding confirmable notification has msgid, or NONE.
+     */
+    public int findByMessageId(int msgid) {
+        int slot = messageIdBuckets[msgid & bucketMask];
+        while (slot != NONE && messageIds[slot] != msgid)
+            slot = nextByMessageId[slot];
+        return slot;
+    }
+
+    /**
+     * Returns the slot of the observer registered from addr and port with the given token, or NONE.
+     */
+    public int findByEndpoint(byte[] addr, int port, byte[] token, int tokenOffset, int tokenLength) {
+        int hash = hashEndpoint(addr, port, token, tokenOffset, tokenLength);
+        int slot = endpointBuckets[hash & bucketMask];
+        while (slot != NONE) {
+            ObserveRequest observer = slots[slot];
+            Message coapMessage = observer.coapMessage;
+            if (endpointHashes[slot] == hash && observer.srcport == port
+                    && coapMessage.getTokenLength() == tokenLength
+                    && Util.compareData(observer.srcaddr, 0, addr, 0, observer.srcaddr.length) == 0xFFFF
+                    && (tokenLength == 0 || Util.compareData(coapMessage.token, coapMessage.tokenOffset, token, tokenOffset, tokenLength) == 0xFFFF))
+                return slot;
+            slot = nextByEndpoint[slot];
+        }
+        return NONE;
+    }
+
+    private static int hashEndpoint(byte[] addr, int port, byte[] token, int tokenOffset, int tokenLength) {
+        int hash = port;
+        for (int i = 0; i < addr.length; i++)
+            hash = hash * 31 + (addr[i] & 0xFF);
+        for (int i = 0; i < tokenLength; i++)
+            hash = hash * 31 + (token[tokenOffset + i] & 0xFF);
+        return hash ^ (hash >>> 16);
+    }
+}
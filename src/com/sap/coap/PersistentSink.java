@@ -0,0 +1,119 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * Writes a body into a persistent array with Util.updatePersistentData, e.g. a configuration that has to
+ * survive a reset. The array holds two slots, each with the length of its body in front of it, and a byte that
+ * tells which slot is current. A body is written into the other slot and becomes current only when its last
+ * block has arrived, so an upload that fails, is aborted or interrupted by a reset leaves the current body as
+ * it was. Length and slot are persistent as well, after a reset the last complete body is read back.
+ *
+ * Layout of the array, see getStorageSize: the current slot (0 or 1), then per slot the length, 2 bytes big
+ * endian, and getCapacity() bytes of body.
+ */
+public final class PersistentSink extends BlockSink {
+    private byte[] data;
+    private int capacity;
+    // slot the body in progress is written to
+    private int target;
+    // a length or slot number to be written by end
+    private byte[] field = new byte[2];
+
+    /**
+     * persistentData has to be @Immutable, i.e. in persistent memory, and getStorageSize(capacity) bytes long.
+     */
+    public PersistentSink(byte[] persistentData) {
+        data = persistentData;
+        capacity = (data.length - 1) / 2 - 2;
+    }
+
+    /**
+     * Size of the persistent array for bodies of up to capacity bytes.
+     */
+    public static int getStorageSize(int capacity) {
+        return 1 + 2 * (2 + capacity);
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Offset of the current body in getData().
+     */
+    public int getOffset() {
+        return slotOffset(data[0] & 1) + 2;
+    }
+
+    /**
+     * Length of the current body, 0 if none has been written yet.
+     */
+    public int getLength() {
+        int length = Util.get16be(data, slotOffset(data[0] & 1));
+        return length <= capacity ? length : 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean begin(int size) {
+        target = 1 - (data[0] & 1);
+        return size <= capacity;
+    }
+
+    public boolean write(int offset, byte[] buffer, int bufferOffset, int inLength) {
+        if (offset + inLength > capacity)
+            return false;
+        // an empty body or last block, the request has no payload
+        if (inLength == 0)
+            return true;
+        Util.updatePersistentData(buffer, bufferOffset, data, slotOffset(target) + 2 + offset, inLength);
+        return true;
+    }
+
+    public void end(int inLength) {
+        Util.set16be(field, 0, inLength);
+        Util.updatePersistentData(field, 0, data, slotOffset(target), 2);
+        // the body becomes current with this single byte
+        field[0] = (byte) target;
+        Util.updatePersistentData(field, 0, data, 0, 1);
+    }
+
+    private int slotOffset(int slot) {
+        return 1 + slot * (2 + capacity);
+    }
+}
@@ -42,6 +42,7 @@ import com.ibm.saguaro.logger.*;
 
 import com.sap.coap.Message;
 import com.sap.coap.Core;
+import com.sap.coap.Resource;
 
 public class Request {
     public byte[] dstaddr;
@@ -51,18 +52,70 @@ public class Request {
 
     public Message coapMessage;
 
+    // resource the request is addressed to
+    public Resource resource;
+
+    // progress of a deferred response, see CoapServer
+    @Immutable public static final byte DEFERRED = 0;
+    @Immutable public static final byte ACKNOWLEDGED = 1; // empty ACK sent, the response follows separately
+    @Immutable public static final byte WAITING_FOR_ACK = 2; // separate confirmable response sent
+    public byte state;
+    // time (in ticks) of the next step: the empty ACK, or the retransmission while WAITING_FOR_ACK
+    public long deadline;
+
+    // the last confirmable message as sent, to resend it if no ACK was received
+    @Immutable public static final byte MAX_CON_FRAME_SIZE = 64;
+    public byte[] conFrame;
+    public int conFrameLength;
+    public int conMessageId;
+    public int currentRetransmissionMillis;
+    public byte retransmissionCounter;
+    // entry of the peer in CongestionControl while the confirmable message is outstanding, and its first transmission
+    public int peer = CongestionControl.NONE;
+    public long conSentTime;
+
+    // true while the request is in the free list of RequestPool
+    boolean free = false;
+
+    /**
+     * Creates an empty request to be kept in RequestPool. The message is preallocated for the given
+     * option size, it will be filled by init.
+     */
+    public Request(int optionCapacity) {
+        coapMessage = new Message();
+        coapMessage.reserve(optionCapacity, 0);
+        conFrame = new byte[MAX_CON_FRAME_SIZE];
+    }
+
     public Request(byte[] inDstAddr, int inDstPort, byte[] inSrcAddr, int inSrcPort, Message coap, boolean emptyPayload, boolean emptyOptions) {
-        dstaddr = inDstAddr;
-        srcaddr = inSrcAddr;
+        coapMessage = new Message();
+        conFrame = new byte[MAX_CON_FRAME_SIZE];
+        init(inDstAddr, inDstPort, inSrcAddr, inSrcPort, coap, emptyPayload, emptyOptions);
+    }
+
+    /**
+     * Addresses and message are copied, so a request can be built from a message that was decoded in place
+     * and from the address arrays of the received packet. The arrays of a previous use are reused.
+     */
+    public void init(byte[] inDstAddr, int inDstPort, byte[] inSrcAddr, int inSrcPort, Message coap, boolean emptyPayload, boolean emptyOptions) {
+        if (dstaddr == null || dstaddr.length != inDstAddr.length)
+            dstaddr = new byte[inDstAddr.length];
+        if (srcaddr == null || srcaddr.length != inSrcAddr.length)
+            srcaddr = new byte[inSrcAddr.length];
+        Address.copyAddress(inDstAddr, 0, dstaddr, 0);
+        Address.copyAddress(inSrcAddr, 0, srcaddr, 0);
         dstport = inDstPort;
         srcport = inSrcPort;
-        coapMessage = coap;
 
-        if (emptyPayload == true)
-            coapMessage.clearPayload();
+        coapMessage.copyFrom(coap, !emptyOptions, !emptyPayload);
 
-        if (emptyOptions == true)
-            coapMessage.clearOptions();
+        state = DEFERRED;
+        deadline = 0;
+        conFrameLength = 0;
+        currentRetransmissionMillis = 0;
+        retransmissionCounter = 0;
+        peer = CongestionControl.NONE;
+        conSentTime = 0;
     }
 
     public Packet prepareResponsePacketForRequest(int lenp, int LOCAL_PORT) {
@@ -0,0 +1,103 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.Request;
+import com.sap.coap.ObserveRequest;
+
+/**
+ * Fixed-capacity pools for the objects the dispatcher needs per request. All objects are created by init at
+ * startup, afterwards acquire and release only move them in and out of the free lists, so memory usage stays
+ * flat no matter how many requests are served. acquire returns null if the pool is exhausted, the caller has to
+ * treat that like a full queue.
+ */
+public final class RequestPool {
+    private static Request[] freeRequests;
+    private static int numFreeRequests = 0;
+
+    private static ObserveRequest[] freeObservers;
+    private static int numFreeObservers = 0;
+
+    // Option bytes a pooled request can hold without allocating (Uri-Path, Observe, Block2)
+    @Immutable public static final int OPTION_CAPACITY = 32;
+
+    public static void init(int requests, int observers) {
+        freeRequests = new Request[requests];
+        for (int i = 0; i < requests; i++) {
+            releaseRequest(new Request(OPTION_CAPACITY));
+        }
+
+        freeObservers = new ObserveRequest[observers];
+        for (int i = 0; i < observers; i++) {
+            releaseObserveRequest(new ObserveRequest(OPTION_CAPACITY));
+        }
+    }
+
+    public static Request acquireRequest() {
+        if (numFreeRequests == 0)
+            return null;
+        numFreeRequests--;
+        Request request = freeRequests[numFreeRequests];
+        freeRequests[numFreeRequests] = null;
+        request.free = false;
+        return request;
+    }
+
+    public static void releaseRequest(Request request) {
+        if (request == null || request.free)
+            return;
+        request.free = true;
+        freeRequests[numFreeRequests] = request;
+        numFreeRequests++;
+    }
+
+    public static ObserveRequest acquireObserveRequest() {
+        if (numFreeObservers == 0)
+            return null;
+        numFreeObservers--;
+        ObserveRequest observer = freeObservers[numFreeObservers];
+        freeObservers[numFreeObservers] = null;
+        observer.free = false;
+        return observer;
+    }
+
+    public static void releaseObserveRequest(ObserveRequest observer) {
+        if (observer == null || observer.free)
+            return;
+        observer.free = true;
+        freeObservers[numFreeObservers] = observer;
+        numFreeObservers++;
+    }
+}
@@ -0,0 +1,137 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.iris.*;
+import com.ibm.saguaro.mrv6.*;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Request;
+
+/**
+ * A resource served by CoapServer. The server looks it up by Uri-Path and calls the callback matching the method
+ * of the request. response has already been started with the type, message id and token of the reply and the
+ * code 2.05 (Content), a callback sets the code, options and payload and returns RESPOND to send it right away.
+ * All methods not overridden reply with 4.05 (Method Not Allowed).
+ *
+ * A callback may return DEFER instead, e.g. when the value has to be read from a sensor first. The server then
+ * queues a copy of the request and calls handleDeferred from its periodic processing until it returns RESPOND,
+ * or replies 5.03 (Service Unavailable) if the queue is full.
+ *
+ * request is only valid during the call, see Message.decode.
+ */
+public abstract class Resource {
+    @Immutable public static final byte RESPOND = 0;
+    @Immutable public static final byte DEFER = 1;
+
+    // maintained by CoapServer
+    int numObservers = 0;
+    int version = 0;
+
+    /**
+     * Attributes of the link to the resource in /.well-known/core, e.g. ;rt="temperature";obs, or null. Taken
+     * once when the resource is registered.
+     */
+    public byte[] getLinkAttributes() {
+        return null;
+    }
+
+    public byte handleGet(Message request, MessageWriter response) {
+        return methodNotAllowed(response);
+    }
+
+    public byte handlePost(Message request, MessageWriter response) {
+        return methodNotAllowed(response);
+    }
+
+    public byte handlePut(Message request, MessageWriter response) {
+        return methodNotAllowed(response);
+    }
+
+    public byte handleDelete(Message request, MessageWriter response) {
+        return methodNotAllowed(response);
+    }
+
+    /**
+     * Called for a queued request, roundCounter of its message counts the calls so far. Only resources returning
+     * DEFER need to override it.
+     */
+    public byte handleDeferred(Request request, MessageWriter response) {
+        response.setCode(Message.createResponseCode((byte) 5, (byte) 0));
+        return RESPOND;
+    }
+
+    /**
+     * Observable resources accept GET requests with the observe option, the server keeps the observers and sends
+     * them a notification after each call of CoapServer.resourceChanged.
+     */
+    public boolean isObservable() {
+        return false;
+    }
+
+    /**
+     * Writes the current representation into a notification. The observe option is already set, further options
+     * must therefore have a higher number. Returns false if there is no representation yet, the notification is
+     * then tried again after the next call of CoapServer.resourceChanged.
+     *
+     * It is called at most once per change, the notification is then sent to all observers as encoded. Changes an
+     * observer cannot be told about yet, see CoapServer.setNotificationIntervals, are coalesced: it only gets the
+     * latest one. A notification with an error code, e.g. one too large to be sent, ends the observation: it goes
+     * out without Observe and the observers are removed.
+     */
+    public boolean writeNotification(MessageWriter notification) {
+        return false;
+    }
+
+    /**
+     * Called from every processing round of the server. demand tells whether the resource has pending requests
+     * or observers. Rounds only run while there is work, so a resource that needs further rounds without demand,
+     * e.g. to shut down a sensor, returns true.
+     */
+    public boolean onPeriodicProcessing(boolean demand) {
+        return false;
+    }
+
+    /**
+     * Called when the mote lost its parent and the server stopped its periodic processing.
+     */
+    public void onParentLost() {
+    }
+
+    protected static byte methodNotAllowed(MessageWriter response) {
+        response.setCode(Message.createResponseCode((byte) 4, (byte) 5));
+        return RESPOND;
+    }
+}
@@ -0,0 +1,435 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.mrv6.*;
+
+//##if LOGGING
+import com.ibm.saguaro.logger.*;
+//##endif
+
+import com.sap.coap.CoapServer;
+import com.sap.coap.CongestionControl;
+import com.sap.coap.Core;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Metrics;
+import com.sap.coap.ResponseHandler;
+import com.sap.coap.Trace;
+
+/**
+ * Registers the links of /.well-known/core with a resource directory, draft-ietf-core-resource-directory-01,
+ * so that clients find the resources of the mote there instead of asking every mote:
+ *
+ *  - registration: POST /rd?ep=name&lt=lifetime with the links, the directory answers 2.01 with the location of
+ *    the registration,
+ *  - update: POST to that location, without payload to refresh the registration before its lifetime is over, or
+ *    with the links once they changed, see linksChanged. An update answered 4.04 registers again.
+ *
+ * Links larger than a block are sent block-wise (Block1). Requests are confirmable and retransmitted by the
+ * congestion control of CoapServer, a failed registration or update is retried after RETRY_INTERVAL. All state
+ * is static, like CoapServer.
+ */
+public final class ResourceDirectoryClient {
+    @Immutable private static int OPTION_LOCATION_PATH = 8;
+    @Immutable private static int OPTION_URI_PATH = 11;
+    @Immutable private static int OPTION_CONTENT_FORMAT = 12;
+    @Immutable private static int OPTION_URI_QUERY = 15;
+    @Immutable private static int OPTION_BLOCK1 = 27;
+    @Immutable private static int OPTION_SIZE1 = 60;
+    @Immutable private static int CONTENT_FORMAT_LINK_FORMAT = 40;
+
+    @Immutable private static byte[] RD_PATH = csr.s2b("rd");
+    @Immutable private static byte[] EP_QUERY = csr.s2b("ep=");
+    @Immutable private static byte[] LT_QUERY = csr.s2b("lt=");
+
+    @Immutable private static int MAX_RETRANSMIT = 4;
+    // retry of a failed registration or update, in milliseconds
+    @Immutable private static int RETRY_INTERVAL = 30000;
+    // time a separate response may take after the empty ACK, in milliseconds
+    @Immutable private static int RESPONSE_TIMEOUT = 60000;
+
+    // lifetime * 750, the update interval in milliseconds, has to fit an int
+    @Immutable private static int MAX_LIFETIME = 2000000;
+
+    @Immutable private static byte MAX_QUERY_SIZE = 40;
+    @Immutable private static byte MAX_LOCATION_SIZE = 32;
+    @Immutable private static byte MAX_LOCATION_SEGMENTS = 4;
+    @Immutable private static byte MAX_FRAME_SIZE = 127;
+
+    // states
+    @Immutable private static final byte IDLE = 0;              // not started
+    @Immutable private static final byte WAITING = 1;           // the timer starts the next registration or update
+    @Immutable private static final byte REQUESTING = 2;        // request sent, waiting for its ACK
+    @Immutable private static final byte AWAITING_RESPONSE = 3; // empty ACK received, the response follows
+    private static byte state = IDLE;
+
+    private static byte[] localAddress = new byte[16];
+    private static byte[] rdAddress = new byte[16];
+    private static int rdPort;
+    private static int lifetime;
+
+    // Uri-Query values "ep=..." and "lt=..." of the registration
+    private static byte[] query = new byte[MAX_QUERY_SIZE];
+    private static int endpointQueryLength;
+    private static int lifetimeQueryLength;
+
+    // Location-Path of the registration, as segments
+    private static boolean registered = false;
+    private static byte[] location = new byte[MAX_LOCATION_SIZE];
+    private static byte[] locationLengths = new byte[MAX_LOCATION_SEGMENTS];
+    private static int numLocationSegments;
+
+    // counts changes of the links, the directory knows registeredLinks
+    private static int linksVersion = 0;
+    private static int registeredLinks = 0;
+
+    // the request in progress: whether it carries the links, its block and the links version it sends
+    private static boolean withLinks;
+    private static int blockOffset;
+    private static byte szx;
+    private static int sentLinks;
+
+    // the request as sent, for retransmissions
+    private static MessageWriter writer = new MessageWriter();
+    private static byte[] frame = new byte[MAX_FRAME_SIZE];
+    private static int frameLength;
+    private static byte[] token = new byte[2];
+    private static int tokenCounter = Util.rand8();
+    private static int messageId;
+    private static int peer = CongestionControl.NONE;
+    private static long sentTime;
+    private static byte retransmissionCounter;
+    private static int timeoutMillis;
+
+    private static Timer timer;
+
+    /**
+     * Starts registering with the resource directory at rdAddress and rdPort under endpoint, refreshed every
+     * lifetimeSeconds. localAddress is the address of the mote the directory sends its responses to.
+     *
+     * Returns false, and changes nothing, if endpoint is empty, lifetimeSeconds is not within 1 to MAX_LIFETIME or
+     * the Uri-Query values "ep=endpoint" and "lt=lifetimeSeconds" together are longer than MAX_QUERY_SIZE bytes.
+     */
+    public static boolean start(byte[] inLocalAddress, byte[] inRdAddress, int inRdPort, byte[] endpoint, int endpointLength, int lifetimeSeconds) {
+        if (endpointLength <= 0 || endpointLength > endpoint.length || lifetimeSeconds <= 0 || lifetimeSeconds > MAX_LIFETIME
+                || 6 + endpointLength + decimalLength(lifetimeSeconds) > MAX_QUERY_SIZE)
+            return false;
+
+        Address.copyAddress(inLocalAddress, 0, localAddress, 0);
+        Address.copyAddress(inRdAddress, 0, rdAddress, 0);
+        rdPort = inRdPort;
+        lifetime = lifetimeSeconds;
+
+        Util.copyData(EP_QUERY, 0, query, 0, 3);
+        Util.copyData(endpoint, 0, query, 3, endpointLength);
+        endpointQueryLength = 3 + endpointLength;
+        Util.copyData(LT_QUERY, 0, query, endpointQueryLength, 3);
+        lifetimeQueryLength = 3 + writeDecimal(lifetimeSeconds, query, endpointQueryLength + 3);
+
+        if (timer == null) {
+            timer = new Timer();
+            timer.setCallback(new TimerEvent(null) {
+                @Override
+                public void invoke(byte param, long time) {
+                    ResourceDirectoryClient.onTimer(param, time);
+                }
+            });
+            CoapServer.setResponseHandler(new ResponseHandler() {
+                @Override
+                public boolean onResponse(Message response, Packet packet) {
+                    return ResourceDirectoryClient.onResponse(response, packet);
+                }
+            });
+        }
+
+        registered = false;
+        state = WAITING;
+        arm(0);
+        return true;
+    }
+
+    /**
+     * To be called when the links of the mote changed, e.g. by CoapServer.register, the directory gets them with
+     * the next update.
+     */
+    public static void linksChanged() {
+        linksVersion++;
+        if (state == WAITING && registered)
+            arm(0);
+    }
+
+    public static boolean isRegistered() {
+        return registered;
+    }
+
+    public static void onTimer(byte param, long time) {
+        if (state == WAITING) {
+            sendRequest(0);
+        } else if (state == REQUESTING) {
+            if (retransmissionCounter == MAX_RETRANSMIT) {
+                Metrics.count(Metrics.RETRANSMIT_TIMEOUTS);
+                Trace.record(Trace.RETRANSMIT_TIMEOUT, retransmissionCounter, messageId, 0, 0);
+                endCON(false);
+                retry();
+                return;
+            }
+            //resend the request, with a growing waiting time for an answer, see CongestionControl.backoff
+            retransmissionCounter++;
+            Metrics.count(Metrics.RETRANSMISSIONS);
+            timeoutMillis = CoapServer.getCongestionControl().backoff(peer, timeoutMillis);
+            Trace.record(Trace.RETRANSMIT, retransmissionCounter, messageId, timeoutMillis, 0);
+            sendFrame();
+            arm(timeoutMillis);
+        } else if (state == AWAITING_RESPONSE) {
+            retry();
+        }
+    }
+
+    public static boolean onResponse(Message response, Packet packet) {
+        if (state == IDLE || packet.srcport != rdPort || Util.compareData(packet.srcaddr, 0, rdAddress, 0, 16) != 0xFFFF)
+            return false;
+
+        byte type = response.getType();
+        byte code = response.getCode();
+
+        if (code == Message.EMPTY) {
+            if (state != REQUESTING || response.getMessageId() != messageId)
+                return false;
+            endCON(type == Message.ACK);
+            if (type == Message.RST) {
+                retry();
+            } else {
+                // the response follows separately
+                state = AWAITING_RESPONSE;
+                arm(RESPONSE_TIMEOUT);
+            }
+            return true;
+        }
+
+        if (response.getTokenLength() != 2 || Util.compareData(response.token, response.tokenOffset, token, 0, 2) != 0xFFFF)
+            return false;
+        if (state != REQUESTING && state != AWAITING_RESPONSE)
+            return true; // a duplicate of a response handled already
+        if (type == Message.ACK && response.getMessageId() != messageId)
+            return true;
+        endCON(type == Message.ACK);
+
+        if (code == Message.createResponseCode((byte) 2, (byte) 31)) {
+            // next block, possibly smaller as the directory asked for
+            int index = response.getIndexOfOptionWithId(OPTION_BLOCK1, 0);
+            blockOffset += 16 << szx;
+            if (index >= 0 && (response.getUintValueOfOptionWithIndex(index) & 0x07) < szx)
+                szx = (byte) (response.getUintValueOfOptionWithIndex(index) & 0x07);
+            if (blockOffset < Core.coreStringLength) {
+                sendRequest(blockOffset);
+                return true;
+            }
+            retry();
+        } else if (code == Message.createResponseCode((byte) 2, (byte) 1) && !registered) {
+            storeLocation(response);
+            registered = numLocationSegments > 0;
+            registeredLinks = sentLinks;
+            refresh();
+        } else if (code == Message.createResponseCode((byte) 2, (byte) 4) && registered) {
+            if (withLinks)
+                registeredLinks = sentLinks;
+            refresh();
+        } else if (code == Message.createResponseCode((byte) 4, (byte) 4) && registered) {
+            // the registration is gone, e.g. it expired
+            registered = false;
+            state = WAITING;
+            arm(0);
+        } else {
+            //##if LOGGING
+            Logger.appendString(csr.s2b("ResourceDirectoryClient.onResponse() :: FAILED "));
+            Logger.appendInt(code);
+            Logger.flush(Mote.INFO);
+            //##endif
+            retry();
+        }
+        return true;
+    }
+
+    /**
+     * Sends the registration, or an update if registered, starting with the block at offset.
+     */
+    private static void sendRequest(int offset) {
+        CongestionControl congestion = CoapServer.getCongestionControl();
+        peer = congestion.acquire(rdAddress, rdPort);
+        if (peer == CongestionControl.NONE) {
+            // NSTART CONs to the directory are outstanding, e.g. a separate response
+            state = WAITING;
+            arm(CongestionControl.ACK_TIMEOUT);
+            return;
+        }
+
+        if (offset == 0) {
+            withLinks = !registered || linksVersion != registeredLinks;
+            sentLinks = linksVersion;
+            szx = Block2.getMaxSzx();
+            tokenCounter++;
+            Util.set16be(token, 0, tokenCounter);
+        }
+        blockOffset = offset;
+        messageId = CoapServer.nextMessageId();
+
+        writer.start(Message.CON, Message.POST, messageId, token, 0, (byte) 2);
+        if (registered) {
+            int segmentOffset = 0;
+            for (int i = 0; i < numLocationSegments; i++) {
+                writer.addOption(OPTION_URI_PATH, location, segmentOffset, locationLengths[i]);
+                segmentOffset += locationLengths[i];
+            }
+        } else {
+            writer.addOption(OPTION_URI_PATH, RD_PATH, 0, RD_PATH.length);
+        }
+        if (withLinks)
+            writer.addUintOption(OPTION_CONTENT_FORMAT, CONTENT_FORMAT_LINK_FORMAT);
+        if (!registered) {
+            writer.addOption(OPTION_URI_QUERY, query, 0, endpointQueryLength);
+            writer.addOption(OPTION_URI_QUERY, query, endpointQueryLength, lifetimeQueryLength);
+        }
+        if (withLinks) {
+            int length = Core.coreStringLength;
+            int blockSize = 16 << szx;
+            int size = length - offset;
+            if (size > blockSize || offset > 0) {
+                int more = 0;
+                if (size > blockSize) {
+                    size = blockSize;
+                    more = 0x08;
+                }
+                writer.addUintOption(OPTION_BLOCK1, ((offset >> (szx + 4)) << 4) | more | szx);
+                if (offset == 0)
+                    writer.addUintOption(OPTION_SIZE1, length);
+            }
+            writer.setPayload(Core.coreString, offset, size);
+        }
+
+        // at most MAX_LOCATION_SEGMENTS + 3 options, within MessageWriter.MAX_OPTIONS
+        frameLength = writer.getLength();
+        if (frameLength > frame.length || writer.hasFailed()) {
+            congestion.release(peer);
+            peer = CongestionControl.NONE;
+            retry();
+            return;
+        }
+        writer.encodeTo(frame, 0);
+
+        sentTime = Time.currentTicks();
+        retransmissionCounter = 0;
+        timeoutMillis = congestion.getInitialTimeout(peer);
+        state = REQUESTING;
+        sendFrame();
+        arm(timeoutMillis);
+    }
+
+    private static void sendFrame() {
+        Packet tempPacket = Mac.getPacket();
+        tempPacket.release();
+        Address.copyAddress(rdAddress, 0, tempPacket.dstaddr, 0);
+        Address.copyAddress(localAddress, 0, tempPacket.srcaddr, 0);
+        tempPacket.create(rdPort, CoapServer.getLocalPort(), frameLength);
+        Util.copyData(frame, 0, tempPacket.payloadBuf, tempPacket.payloadOff, frameLength);
+        CoapServer.sendPacket(tempPacket);
+    }
+
+    // Ends the confirmable request at the congestion control, with its round trip time if it was acknowledged
+    private static void endCON(boolean acknowledged) {
+        if (peer == CongestionControl.NONE)
+            return;
+        CongestionControl congestion = CoapServer.getCongestionControl();
+        if (acknowledged)
+            congestion.onAck(peer, (int) Time.fromTickSpan(Time.MILLISECS, Time.currentTicks() - sentTime), retransmissionCounter);
+        congestion.release(peer);
+        peer = CongestionControl.NONE;
+    }
+
+    // Waits for the next update: right away if the links changed, otherwise until 3/4 of the lifetime are over
+    private static void refresh() {
+        state = WAITING;
+        if (linksVersion != registeredLinks)
+            arm(0);
+        else
+            arm(lifetime * 750);
+    }
+
+    private static void retry() {
+        state = WAITING;
+        arm(RETRY_INTERVAL);
+    }
+
+    private static void arm(int millis) {
+        timer.cancelAlarm();
+        timer.setAlarmBySpan(Time.toTickSpan(Time.MILLISECS, millis));
+    }
+
+    private static void storeLocation(Message response) {
+        numLocationSegments = 0;
+        int length = 0;
+        for (int i = 0; i < MAX_LOCATION_SEGMENTS; i++) {
+            int index = response.getIndexOfOptionWithId(OPTION_LOCATION_PATH, i);
+            if (index < 0)
+                break;
+            int size = response.getValueSizeOfOptionWithIndex(index);
+            if (length + size > location.length) {
+                numLocationSegments = 0;
+                return;
+            }
+            Util.copyData(response.options, response.getValueOffsetOfOptionWithIndex(index), location, length, size);
+            locationLengths[i] = (byte) size;
+            length += size;
+            numLocationSegments++;
+        }
+    }
+
+    // Number of decimal digits of value, which is not negative
+    private static int decimalLength(int value) {
+        int digits = 1;
+        for (int rest = value / 10; rest != 0; rest /= 10)
+            digits++;
+        return digits;
+    }
+
+    // Writes value in decimal digits to buffer and returns their number
+    private static int writeDecimal(int value, byte[] buffer, int offset) {
+        int digits = decimalLength(value);
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,132 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Resource;
+
+/**
+ * The current representation of a resource together with an entity tag and the time it was taken, so that GETs
+ * can be answered from it while it is fresh, draft-ietf-core-coap-18, 5.6. A response carries the ETag and the
+ * remaining freshness as Max-Age, a request carrying the current ETag is answered 2.03 (Valid) without payload.
+ *
+ * The representation is copied into a buffer of fixed size, allocated by the constructor.
+ */
+public final class ResponseCache {
+    @Immutable public static final int OPTION_ETAG = 4;
+    @Immutable public static final int OPTION_MAX_AGE = 14;
+
+    private byte[] payload;
+    private int payloadLength = 0;
+    private long maxAgeTicks;
+    private long updateTime;
+    // entity tag of the current representation, a counter that is never 0 so it is never encoded empty
+    private int etag = 0;
+
+    public ResponseCache(int capacity, int maxAgeMillis) {
+        payload = new byte[capacity];
+        maxAgeTicks = Time.toTickSpan(Time.MILLISECS, maxAgeMillis);
+    }
+
+    /**
+     * Replaces the representation, it is fresh from now on and gets a new ETag. Returns false, leaving the cache
+     * empty, if it is larger than the buffer.
+     */
+    public boolean update(byte[] buffer, int offset, int length) {
+        etag++;
+        if (etag == 0)
+            etag = 1;
+        if (length > payload.length) {
+            payloadLength = 0;
+            return false;
+        }
+        Util.copyData(buffer, offset, payload, 0, length);
+        payloadLength = length;
+        updateTime = Time.currentTicks();
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return payloadLength == 0;
+    }
+
+    public boolean isFresh() {
+        return payloadLength != 0 && Time.currentTicks() - updateTime - maxAgeTicks < 0;
+    }
+
+    /**
+     * Answers a GET from the representation: 2.03 (Valid) if one of the ETag options of request is the current
+     * one, the representation otherwise. response must not have options yet. Returns Resource.RESPOND.
+     */
+    public byte respond(Message request, MessageWriter response) {
+        response.addUintOption(OPTION_ETAG, etag);
+        if (matches(request)) {
+            response.setCode(Message.createResponseCode((byte) 2, (byte) 3));
+            response.addUintOption(OPTION_MAX_AGE, getMaxAgeSeconds());
+            return Resource.RESPOND;
+        }
+        return write(response);
+    }
+
+    /**
+     * Writes Max-Age and the representation, e.g. into a notification, where an ETag can no longer be added after
+     * the Observe option. Returns Resource.RESPOND.
+     */
+    public byte write(MessageWriter response) {
+        response.addUintOption(OPTION_MAX_AGE, getMaxAgeSeconds());
+        response.setPayload(payload, 0, payloadLength);
+        return Resource.RESPOND;
+    }
+
+    // remaining freshness, 0 when stale
+    private int getMaxAgeSeconds() {
+        long left = maxAgeTicks - (Time.currentTicks() - updateTime);
+        if (left <= 0)
+            return 0;
+        return (int) (Time.fromTickSpan(Time.MILLISECS, left) / 1000);
+    }
+
+    private boolean matches(Message request) {
+        int length = MessageWriter.uintLength(etag);
+        for (int i = 0; ; i++) {
+            int index = request.getIndexOfOptionWithId(OPTION_ETAG, i);
+            if (index < 0)
+                return false;
+            if (request.getValueSizeOfOptionWithIndex(index) == length && request.getUintValueOfOptionWithIndex(index) == etag)
+                return true;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.iris.*;
+import com.ibm.saguaro.mrv6.*;
+
+//##if LOGGING
+import com.ibm.saguaro.logger.*;
+//##endif
+
+import com.sap.coap.CoapServer;
+import com.sap.coap.Format;
+import com.sap.coap.Message;
+import com.sap.coap.MessageWriter;
+import com.sap.coap.Request;
+import com.sap.coap.Resource;
+
+/**
+ * Temperature of an MTS400 sensor board, observable. The sensor is only opened while there are requests or
+ * observers and kept active for KEEP_SENSOR_ACTIVE_DURATION further rounds of the server. A GET is answered right
+ * away while the latest reading is younger than the freshness window given to the constructor (with ETag and
+ * Max-Age, see ResponseCache), otherwise it is deferred until the next reading is available, and answered with
+ * 5.03 if there is none after three rounds.
+ *
+ * The read handler of the sensor has to be forwarded to onSensorData by the application.
+ */
+public final class TemperatureResource extends Resource {
+    private SDev sensor;
+    private byte sensorAttached = 0;
+
+    @Immutable private static short SENSOR_READ_INTERVALL = 8000;
+    @Immutable private static byte KEEP_SENSOR_ACTIVE_DURATION = 4;
+
+    @Immutable private static byte[] LINK_ATTRIBUTES = csr.s2b(";if=\"sensor\";rt=\"temperature\";obs");
+
+    // formatted reading, -yyy.xx
+    @Immutable private static byte PAYLOAD_SIZE = 7;
+    private byte[] payload = new byte[PAYLOAD_SIZE];
+
+    // latest reading
+    private ResponseCache cache;
+
+    public TemperatureResource(SDev inSensor, int maxAgeMillis) {
+        sensor = inSensor;
+        cache = new ResponseCache(PAYLOAD_SIZE, maxAgeMillis);
+    }
+
+    public byte handleGet(Message request, MessageWriter response) {
+        // deferred until the next reading if the latest one is stale, that also switches the sensor on
+        if (!cache.isFresh())
+            return DEFER;
+        return cache.respond(request, response);
+    }
+
+    public byte handleDeferred(Request request, MessageWriter response) {
+        if (cache.isFresh())
+            return cache.respond(request.coapMessage, response);
+        if (request.coapMessage.roundCounter == 3) {
+            response.setCode(Message.createResponseCode((byte) 5, (byte) 03));
+            return RESPOND;
+        }
+        return DEFER;
+    }
+
+    public byte[] getLinkAttributes() {
+        return LINK_ATTRIBUTES;
+    }
+
+    public boolean isObservable() {
+        return true;
+    }
+
+    public boolean writeNotification(MessageWriter notification) {
+        if (cache.isEmpty())
+            return false;
+        cache.write(notification);
+        return true;
+    }
+
+    public boolean onPeriodicProcessing(boolean demand) {
+        if (demand) {
+            if (sensorAttached == 0) {
+                sensorAttached = KEEP_SENSOR_ACTIVE_DURATION;
+                sensor.open(IRIS.DID_MTS400_HUMID_TEMP, null, 0, 0);
+                sensor.read(Device.ASAP,4,0);
+            }
+            // the readings trigger the next rounds
+            return false;
+        } else {
+            if (sensorAttached == 1) {
+                // the read handler stays installed, the sensor is opened again on demand
+                try {
+                    sensor.close();
+                } catch (MoteException e) {}
+            }
+            if (sensorAttached > 0) {
+                sensorAttached--;
+            }
+            // count down to closing the sensor
+            return sensorAttached > 0;
+        }
+    }
+
+    public void onParentLost() {
+        // Close device when node gets lost
+        sensorAttached = 0;
+        try {
+            if (sensor != null) {
+                sensor.close();
+            }
+        } catch (MoteException e) {
+        }
+    }
+
+    public int onSensorData(int flags, byte[] data, int len, int info, long time) {
+        if ((flags & Device.FLAG_FAILED) != 0) {
+            // Reading the sensor failed in some way. Data is broken.
+            //##if LOGGING
+            Logger.appendString(csr.s2b("TemperatureResource.onSensorData() :: **** SENSOR FAILED ****"));
+            Logger.flush(Mote.INFO);
+            //##endif
+            return -1;
+        }
+
+        // Create nice looking result
+
+        // Get temperature in format
+        // yyy.xx
+        // this is done by moving it left two digits (*100) applying the formula (* 0.01 - 40) resulting in
+        // temp - 4000
+
+        long temperature = (Util.get16be(data,2) & 0x3FFF) - 4000;
+
+        int length = Format.intToUtf8((int) temperature, 10, 5, 2, payload, 0);
+        cache.update(payload, 0, length);
+
+        sensor.read(Device.TIMED, 4, Time.currentTicks()+Time.toTickSpan(Time.MILLISECS, SENSOR_READ_INTERVALL));
+
+        CoapServer.resourceChanged(this);
+        return 0;
+    }
+}
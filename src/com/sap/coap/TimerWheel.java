@@ -0,0 +1,169 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+/**
+ * A hashed timer wheel for a fixed set of timer entries, numbered 0 to entries - 1, e.g. one per observer and
+ * purpose. Entries are kept in doubly linked chains per bucket, so schedule and cancel are O(1), and they are
+ * all driven by one Timer of the owner instead of one Timer each: the owner calls poll when its timer fires and
+ * re-arms it with nextSpan.
+ *
+ * The resolution is tickMillis. An entry expires in the first poll at or after its expiry time, entries more
+ * than one revolution ahead stay in their bucket until their round comes.
+ */
+public final class TimerWheel {
+    @Immutable public static final int NONE = -1;
+
+    private long tickSpan;
+    private int bucketMask;
+    private int[] heads;
+
+    private long[] expiry;
+    private int[] next;
+    private int[] prev;
+    private int[] bucketOf; // NONE if the entry is not scheduled
+
+    private int numScheduled = 0;
+    // tick up to which the buckets have been polled
+    private long cursorTick;
+
+    /**
+     * @param entries    number of timer entries
+     * @param buckets    number of buckets, a power of two
+     * @param tickMillis resolution in milliseconds
+     */
+    public TimerWheel(int entries, int buckets, int tickMillis) {
+        tickSpan = Time.toTickSpan(Time.MILLISECS, tickMillis);
+        bucketMask = buckets - 1;
+        heads = new int[buckets];
+        for (int i = 0; i < buckets; i++)
+            heads[i] = NONE;
+
+        expiry = new long[entries];
+        next = new int[entries];
+        prev = new int[entries];
+        bucketOf = new int[entries];
+        for (int i = 0; i < entries; i++)
+            bucketOf[i] = NONE;
+
+        cursorTick = Time.currentTicks() / tickSpan;
+    }
+
+    /**
+     * Schedules entry to expire span ticks from now, replacing an earlier schedule of it.
+     */
+    public void schedule(int entry, long span) {
+        cancel(entry);
+
+        long time = Time.currentTicks() + span;
+        int bucket = (int) ((time / tickSpan) & bucketMask);
+        expiry[entry] = time;
+        bucketOf[entry] = bucket;
+        prev[entry] = NONE;
+        next[entry] = heads[bucket];
+        if (heads[bucket] != NONE)
+            prev[heads[bucket]] = entry;
+        heads[bucket] = entry;
+        numScheduled++;
+    }
+
+    public void cancel(int entry) {
+        int bucket = bucketOf[entry];
+        if (bucket == NONE)
+            return;
+
+        if (prev[entry] == NONE)
+            heads[bucket] = next[entry];
+        else
+            next[prev[entry]] = next[entry];
+        if (next[entry] != NONE)
+            prev[next[entry]] = prev[entry];
+
+        bucketOf[entry] = NONE;
+        numScheduled--;
+    }
+
+    public boolean isScheduled(int entry) {
+        return bucketOf[entry] != NONE;
+    }
+
+    /**
+     * Returns the next entry that has expired by now and unschedules it, NONE if there is none. To be called
+     * until it returns NONE.
+     */
+    public int poll(long now) {
+        long nowTick = now / tickSpan;
+
+        // after a long pause every bucket is visited once
+        if (nowTick - cursorTick > bucketMask)
+            cursorTick = nowTick - bucketMask;
+
+        while (numScheduled != 0) {
+            int bucket = (int) (cursorTick & bucketMask);
+            for (int entry = heads[bucket]; entry != NONE; entry = next[entry]) {
+                if (expiry[entry] - now <= 0) {
+                    cancel(entry);
+                    return entry;
+                }
+            }
+            if (cursorTick - nowTick >= 0)
+                break;
+            cursorTick++;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the span in ticks after which poll has to be called again, i.e. up to the first tick with an
+     * expiring entry, or one revolution if no entry expires before. Returns 0 if no entry is scheduled, the
+     * timer then does not need to be armed.
+     */
+    public long nextSpan(long now) {
+        if (numScheduled == 0)
+            return 0;
+
+        long nowTick = now / tickSpan;
+        for (long tick = nowTick; tick - nowTick <= bucketMask; tick++) {
+            int bucket = (int) (tick & bucketMask);
+            for (int entry = heads[bucket]; entry != NONE; entry = next[entry]) {
+                if (expiry[entry] / tickSpan - tick <= 0) {
+                    long span = expiry[entry] - now;
+                    return span > 0 ? span : 1;
+                }
+            }
+        }
+        return (bucketMask + 1) * tickSpan;
+    }
+}
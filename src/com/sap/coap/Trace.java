@@ -0,0 +1,196 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.mrv6.*;
+
+//##if LOGGING
+import com.ibm.saguaro.logger.*;
+//##endif
+
+/**
+ * A ring of fixed-width binary trace records, the last CAPACITY events of the server. Recording stores a few
+ * bytes into a preallocated array, it neither allocates nor flushes, so unlike logging it barely changes the
+ * timing and can stay on in the field. The ring is read by TraceResource at /trace, and written to the log by
+ * log() in builds with LOGGING.
+ *
+ * A record has RECORD_SIZE bytes, multi-byte fields big endian:
+ *
+ *   0      event, one of the constants below
+ *   1      a, a small argument of the event
+ *   2..3   message id, 0 if the event has none
+ *   4..7   time, the lower 32 bits of Time.currentTicks()
+ *   8..9   b
+ *   10..11 c
+ *   12..13 the lower 16 bits of the address of the peer, 0 if the event has none
+ *   14..15 UDP port of the peer
+ *
+ * Records are numbered from boot on, record n is at n % CAPACITY. The event numbers are part of the format and
+ * must not change, new events get new numbers.
+ */
+public final class Trace {
+    // marks a record overwritten while TraceSource read it, the other bytes are 0xFF, never in the ring itself
+    @Immutable public static final byte LOST = 0;
+    // a received packet, a: first header byte (version, type, token length), b: code, c: UDP payload length
+    @Immutable public static final byte RX = 1;
+    // a sent packet, a, b and c as for RX
+    @Immutable public static final byte TX = 2;
+    // a message Message.decode rejected, a: one of the DECODE_ reasons, b: offset of the error in the message
+    @Immutable public static final byte DECODE_ERROR = 3;
+    // a retransmitted CON, a: retransmission counter, b: the next timeout in milliseconds
+    @Immutable public static final byte RETRANSMIT = 4;
+    // a CON given up after MAX_RETRANSMIT retransmissions
+    @Immutable public static final byte RETRANSMIT_TIMEOUT = 5;
+    // a MoteException while a packet was handled
+    @Immutable public static final byte EXCEPTION = 6;
+
+    // reasons of DECODE_ERROR
+    @Immutable public static final byte DECODE_TOKEN = 1;
+    @Immutable public static final byte DECODE_OPTIONS = 2;
+    @Immutable public static final byte DECODE_PAYLOAD = 3;
+    @Immutable public static final byte DECODE_HEADER = 4;
+
+    // a power of two like the block sizes, so a block of TraceResource always holds whole records
+    @Immutable public static final byte RECORD_SIZE = 16;
+    // a power of two, so that the numbering wraps around together with the ring
+    @Immutable public static final byte CAPACITY = 32;
+
+    private static byte[] ring = new byte[CAPACITY * RECORD_SIZE];
+    // number of the next record
+    private static int next = 0;
+    // whether the ring has been filled once, i.e. all of it holds records
+    private static boolean full = false;
+
+    public static void record(byte event, int a, int messageId, int b, int c) {
+        int offset = append(event, a, messageId, b, c);
+        Util.set32be(ring, offset + 12, 0);
+    }
+
+    /**
+     * Records packet as RX, with its source as peer, or as TX, with its destination as peer. Message id and code
+     * are taken from the CoAP header.
+     */
+    public static void recordPacket(byte event, Packet packet) {
+        byte[] buffer = packet.payloadBuf;
+        int start = packet.payloadOff;
+        int length = packet.payloadLen;
+        int offset;
+        if (length < 4)
+            offset = append(event, length > 0 ? buffer[start] : 0, 0, 0, length);
+        else
+            offset = append(event, buffer[start], Util.get16be(buffer, start + 2), buffer[start + 1] & 0xFF, length);
+
+        if (event == RX) {
+            Util.copyData(packet.srcaddr, 14, ring, offset + 12, 2);
+            Util.set16be(ring, offset + 14, packet.srcport);
+        } else {
+            Util.copyData(packet.dstaddr, 14, ring, offset + 12, 2);
+            Util.set16be(ring, offset + 14, packet.dstport);
+        }
+    }
+
+    // Writes all but the peer of the next record and returns its offset in the ring
+    private static int append(byte event, int a, int messageId, int b, int c) {
+        int offset = (next & (CAPACITY - 1)) * RECORD_SIZE;
+        next++;
+        if ((next & (CAPACITY - 1)) == 0)
+            full = true;
+        ring[offset] = event;
+        ring[offset + 1] = (byte) a;
+        Util.set16be(ring, offset + 2, messageId);
+        Util.set32be(ring, offset + 4, (int) Time.currentTicks());
+        Util.set16be(ring, offset + 8, b);
+        Util.set16be(ring, offset + 10, c);
+        return offset;
+    }
+
+    /**
+     * Number of the next record, i.e. of records written since boot modulo 2^32.
+     */
+    public static int getNext() {
+        return next;
+    }
+
+    /**
+     * Number of the oldest record in the ring.
+     */
+    public static int getFirst() {
+        return full ? next - CAPACITY : 0;
+    }
+
+    /**
+     * Whether record number, which was in the ring at some time, has not been overwritten since.
+     */
+    public static boolean isAvailable(int number) {
+        return next - number <= CAPACITY;
+    }
+
+    /**
+     * Copies length bytes of record number, starting at byte offset of the record, to buffer.
+     */
+    public static void read(int number, int offset, byte[] buffer, int bufferOffset, int length) {
+        Util.copyData(ring, (number & (CAPACITY - 1)) * RECORD_SIZE + offset, buffer, bufferOffset, length);
+    }
+
+    //##if LOGGING
+    /**
+     * Writes the records in the ring to the log, oldest first, one line per record: number, event, a, message
+     * id, time, b, c, peer address, peer port.
+     */
+    public static void log() {
+        for (int number = getFirst(); number != next; number++) {
+            int offset = (number & (CAPACITY - 1)) * RECORD_SIZE;
+            Logger.appendString(csr.s2b("TRACE "));
+            Logger.appendInt(number);
+            Logger.appendChar(' ');
+            Logger.appendInt(ring[offset]);
+            Logger.appendChar(' ');
+            Logger.appendInt(ring[offset + 1] & 0xFF);
+            Logger.appendChar(' ');
+            Logger.appendInt(Util.get16be(ring, offset + 2));
+            Logger.appendChar(' ');
+            Logger.appendInt(Util.get32be(ring, offset + 4));
+            Logger.appendChar(' ');
+            Logger.appendInt(Util.get16be(ring, offset + 8));
+            Logger.appendChar(' ');
+            Logger.appendInt(Util.get16be(ring, offset + 10));
+            Logger.appendChar(' ');
+            Logger.appendInt(Util.get16be(ring, offset + 12));
+            Logger.appendChar(' ');
+            Logger.appendInt(Util.get16be(ring, offset + 14));
+            Logger.flush(Mote.INFO);
+        }
+    }
+    //##endif
+}
@@ -0,0 +1,98 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.BlockSource;
+import com.sap.coap.Trace;
+
+/**
+ * The records of Trace, read in place from the ring instead of copied. The representation is a header of
+ * Trace.RECORD_SIZE bytes followed by the records that were in the ring at the last snapshot(), oldest first.
+ * The header holds the number of the first record and the ticks per second of the time field, 4 bytes each and
+ * big endian, the rest is 0.
+ *
+ * Tracing goes on while the blocks are read. A record overwritten since the snapshot is replaced by a marker,
+ * event Trace.LOST and all other bytes 0xFF, which no recorded event looks like, so a client can tell the gap
+ * from the records around it. Blocks hold whole records, so a record is never torn between two blocks.
+ */
+public final class TraceSource extends BlockSource {
+    @Immutable public static final byte HEADER_SIZE = Trace.RECORD_SIZE;
+
+    private byte[] header = new byte[HEADER_SIZE];
+    private int first = 0;
+    private int count = 0;
+
+    /**
+     * Fixes the records to read to those now in the ring.
+     */
+    public void snapshot() {
+        first = Trace.getFirst();
+        count = Trace.getNext() - first;
+        Util.set32be(header, 0, first);
+        Util.set32be(header, 4, (int) Time.toTickSpan(Time.SECONDS, 1));
+    }
+
+    public int getLength() {
+        return HEADER_SIZE + count * Trace.RECORD_SIZE;
+    }
+
+    public void read(int offset, byte[] buffer, int bufferOffset, int length) {
+        while (length > 0) {
+            int n;
+            if (offset < HEADER_SIZE) {
+                n = HEADER_SIZE - offset;
+                if (n > length)
+                    n = length;
+                Util.copyData(header, offset, buffer, bufferOffset, n);
+            } else {
+                int number = first + (offset - HEADER_SIZE) / Trace.RECORD_SIZE;
+                int inRecord = (offset - HEADER_SIZE) % Trace.RECORD_SIZE;
+                n = Trace.RECORD_SIZE - inRecord;
+                if (n > length)
+                    n = length;
+                if (Trace.isAvailable(number)) {
+                    Trace.read(number, inRecord, buffer, bufferOffset, n);
+                } else {
+                    Util.fillData(buffer, bufferOffset, n, 0xFF);
+                    if (inRecord == 0)
+                        buffer[bufferOffset] = Trace.LOST;
+                }
+            }
+            offset += n;
+            bufferOffset += n;
+            length -= n;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/* CoAP on Moterunner Demonstration
+ * Copyright (c) 2013-2014, SAP AG
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * - Neither the name of the SAP AG nor the names of its contributors may be 
+ *   used to endorse or promote products derived from this software without 
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SAP BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Contributors:
+ *   Matthias Thoma
+ *   Martin Zabel
+ *   Theofilos Kakantousis
+ */
+
+package com.sap.coap;
+
+import com.ibm.saguaro.system.*;
+
+import com.sap.coap.Message;
+import com.sap.coap.Resource;
+
+/**
+ * Maps Uri-Path to resources. The registered paths are kept as a trie of path segments: every node is one
+ * segment, stored in a shared byte array, with its children in a sibling list. Routing walks the trie once along
+ * the Uri-Path options of a request and compares the option values in place, so it neither allocates nor
+ * depends on the number of registered resources beyond the siblings of each visited node.
+ *
+ * All arrays are sized at construction, register returns false if they are exhausted and leaves the trie as it
+ * was.
+ */
+public final class UriRouter {
+    @Immutable private static final int OPTION_NUMBER_URI_PATH = 11;
+    @Immutable private static final int NONE = -1;
+
+    // node 0 is the root (empty path), it has no label
+    private int numNodes = 1;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] labelOffset;
+    private int[] labelLength;
+    private Resource[] resources;
+
+    private byte[] labels;
+    private int labelsSize = 0;
+
+    public UriRouter(int maxNodes, int maxLabelBytes) {
+        firstChild = new int[maxNodes];
+        nextSibling = new int[maxNodes];
+        labelOffset = new int[maxNodes];
+        labelLength = new int[maxNodes];
+        resources = new Resource[maxNodes];
+        labels = new byte[maxLabelBytes];
+        firstChild[0] = NONE;
+        nextSibling[0] = NONE;
+    }
+
+    /**
+     * Registers resource for path, given as segments separated by '/' (e.g. "sensor/temp"). A leading '/' is
+     * ignored. Registering a path again replaces its resource.
+     */
+    public boolean register(byte[] path, int pathLength, Resource resource) {
+        int node = 0;
+        int start = 0;
+        if (pathLength > 0 && path[0] == '/')
+            start = 1;
+
+        // nodes are only appended, those of this path from savedNodes on, the first of them a child of branch
+        int savedNodes = numNodes;
+        int savedLabelsSize = labelsSize;
+        int branch = NONE;
+
+        while (start < pathLength) {
+            int end = start;
+            while (end < pathLength && path[end] != '/')
+                end++;
+
+            int child = findChild(node, path, start, end - start);
+            if (child == NONE) {
+                if (numNodes == savedNodes)
+                    branch = node;
+                child = addChild(node, path, start, end - start);
+                if (child == NONE) {
+                    // no segments of a path that cannot be registered are kept
+                    if (numNodes != savedNodes) {
+                        firstChild[branch] = nextSibling[savedNodes];
+                        numNodes = savedNodes;
+                        labelsSize = savedLabelsSize;
+                    }
+                    return false;
+                }
+            }
+            node = child;
+            start = end + 1;
+        }
+
+        resources[node] = resource;
+        return true;
+    }
+
+    /**
+     * Returns the resource registered for the Uri-Path of request, or null if there is none.
+     */
+    public Resource route(Message request) {
+        int node = 0;
+        int optionCount = request.getOptionCount();
+        int index = request.getIndexOfOptionWithId(OPTION_NUMBER_URI_PATH, 0);
+
+        if (index >= 0) {
+            while (index < optionCount && request.getIdOfOptionWithIndex(index) == OPTION_NUMBER_URI_PATH) {
+                node = findChild(node, request.options, request.getValueOffsetOfOptionWithIndex(index),
+                        request.getValueSizeOfOptionWithIndex(index));
+                if (node == NONE)
+                    return null;
+                index++;
+            }
+        }
+        return resources[node];
+    }
+
+    private int findChild(int node, byte[] segment, int offset, int length) {
+        int child = firstChild[node];
+        while (child != NONE) {
+            if (labelLength[child] == length
+                    && (length == 0 || Util.compareData(labels, labelOffset[child], segment, offset, length) == 0xFFFF))
+                return child;
+            child = nextSibling[child];
+        }
+        return NONE;
+    }
+
+    private int addChild(int node, byte[] segment, int offset, int length) {
+        if (numNodes == resources.length || labelsSize + length > labels.length)
+            return NONE;
+
+        int child = numNodes;
+        numNodes++;
+
+        Util.copyData(segment, offset, labels, labelsSize, length);
+        labelOffset[child] = labelsSize;
+        labelLength[child] = length;
+        labelsSize += length;
+
+        firstChild[child] = NONE;
+        nextSibling[child] = firstChild[node];
+        firstChild[node] = child;
+        return child;
+    }
+}